@@ -0,0 +1,113 @@
+package com.github.chrisbanes.photoview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.view.View;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Drags, pinches, flings and double tap zooms must not allocate once the first cycles have
+ * created everything they need. The gesture callbacks and the matrix update are called on the
+ * attacher directly, so only PhotoView code is counted, not input dispatch or drawing. The view
+ * is not attached, so flings and zooms are armed and cancelled without running frames.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AllocationTest {
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int WARM_UP_CYCLES = 3;
+    private static final int MEASURED_CYCLES = 100;
+
+    private PhotoViewAttacher attacher;
+    private int allocCount;
+
+    @Before
+    public void setUp() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+                final PhotoView photoView = new PhotoView(context);
+                photoView.setImageBitmap(Bitmap.createBitmap(2000, 1500, Bitmap.Config.ARGB_8888));
+                photoView.measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+                photoView.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+                photoView.setScale(2f);
+                attacher = photoView.getAttacher();
+            }
+        });
+    }
+
+    @Test
+    public void gestureCyclesDoNotAllocate() {
+        assertEquals(0, measure());
+    }
+
+    @Test
+    public void coalescedGestureCyclesDoNotAllocate() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                attacher.setFrameCoalescingEnabled(true);
+            }
+        });
+        assertEquals(0, measure());
+    }
+
+    private int measure() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            @SuppressWarnings("deprecation")
+            public void run() {
+                for (int i = 0; i < WARM_UP_CYCLES; i++) {
+                    cycle();
+                }
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+                for (int i = 0; i < MEASURED_CYCLES; i++) {
+                    cycle();
+                }
+                allocCount = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+            }
+        });
+        return allocCount;
+    }
+
+    /**
+     * Drags and pinches there and back, then arms a fling and a double tap zoom and cancels
+     * them as the next touch down would, so every cycle ends where it started.
+     */
+    private void cycle() {
+        final OnGestureListener listener = attacher.onGestureListener;
+        final float x = VIEW_WIDTH / 2f, y = VIEW_HEIGHT / 2f;
+        for (int i = 0; i < 10; i++) {
+            listener.onDrag(5f, 3f);
+            attacher.checkAndDisplayMatrix();
+        }
+        for (int i = 0; i < 10; i++) {
+            listener.onDrag(-5f, -3f);
+            attacher.checkAndDisplayMatrix();
+        }
+        listener.onScale(1.1f, x, y, 0f, 0f);
+        attacher.checkAndDisplayMatrix();
+        listener.onScale(1f / 1.1f, x, y, 0f, 0f);
+        attacher.flushPendingTransform();
+        attacher.checkAndDisplayMatrix();
+
+        listener.onFling(x, y, 4000f, 2000f);
+        attacher.cancelAnimations();
+        attacher.setScale(attacher.getMaximumScale(), x, y, true);
+        attacher.cancelAnimations();
+    }
+}
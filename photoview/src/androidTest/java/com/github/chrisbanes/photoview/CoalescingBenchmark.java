@@ -0,0 +1,132 @@
+package com.github.chrisbanes.photoview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Cost of a frame of dragging, with and without frame coalescing. Each frame replays a burst of
+ * ACTION_MOVE events, as a touch panel sampling faster than the display delivers them, then
+ * draws once. Without coalescing every event runs the bounds check and matrix update, with it
+ * they are applied once when the frame comes.
+ */
+@RunWith(Parameterized.class)
+public class CoalescingBenchmark {
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int IMAGE_WIDTH = 4000;
+    private static final int IMAGE_HEIGHT = 3000;
+    // Far enough past the touch slop that the first move starts a drag
+    private static final float DRAG_START = 100f;
+    private static final float STEP = 4f;
+
+    @Parameterized.Parameters(name = "coalesce={0}, eventsPerFrame={1}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][]{{false, 2}, {true, 2}, {false, 8}, {true, 8}});
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final boolean coalesce;
+    private final int eventsPerFrame;
+    private Bitmap image;
+    private Canvas canvas;
+    private PhotoView photoView;
+    // One frame of moves to the right, then one back to the left, so the image stays in bounds
+    private MotionEvent[] moves;
+    private MotionEvent up;
+
+    public CoalescingBenchmark(boolean coalesce, int eventsPerFrame) {
+        this.coalesce = coalesce;
+        this.eventsPerFrame = eventsPerFrame;
+    }
+
+    @Before
+    public void setUp() {
+        image = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+        image.eraseColor(0xff336699);
+        canvas = new Canvas(Bitmap.createBitmap(VIEW_WIDTH, VIEW_HEIGHT, Bitmap.Config.ARGB_8888));
+        // Views need a looper to be created on
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+                photoView = new PhotoView(context);
+                photoView.setImageBitmap(image);
+                photoView.measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+                photoView.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+                photoView.setScaleLevels(1f, 2f, 8f);
+                photoView.setScale(4f);
+                photoView.getAttacher().setFrameCoalescingEnabled(coalesce);
+            }
+        });
+
+        final float x = VIEW_WIDTH / 2f, y = VIEW_HEIGHT / 2f;
+        final long downTime = SystemClock.uptimeMillis();
+        final MotionEvent down = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, x, y, 0);
+        final MotionEvent start = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_MOVE,
+            x + DRAG_START, y, 0);
+        photoView.dispatchTouchEvent(down);
+        photoView.dispatchTouchEvent(start);
+        down.recycle();
+        start.recycle();
+
+        moves = new MotionEvent[2 * eventsPerFrame];
+        for (int i = 0; i < eventsPerFrame; i++) {
+            moves[i] = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_MOVE,
+                x + DRAG_START + STEP * (i + 1), y, 0);
+            moves[eventsPerFrame + i] = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_MOVE,
+                x + DRAG_START + STEP * (eventsPerFrame - 1 - i), y, 0);
+        }
+        up = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_UP, x + DRAG_START, y, 0);
+    }
+
+    @After
+    public void tearDown() {
+        photoView.dispatchTouchEvent(up);
+        up.recycle();
+        for (MotionEvent move : moves) {
+            move.recycle();
+        }
+        image.recycle();
+    }
+
+    @Test
+    public void frame() {
+        final BenchmarkState state = benchmarkRule.getState();
+        int next = 0;
+        while (state.keepRunning()) {
+            for (int i = 0; i < eventsPerFrame; i++) {
+                photoView.dispatchTouchEvent(moves[next++]);
+            }
+            if (next == moves.length) {
+                next = 0;
+            }
+            if (coalesce) {
+                // What the frame callback would do
+                photoView.getAttacher().flushPendingTransform();
+            }
+            photoView.draw(canvas);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.chrisbanes.photoview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.view.View;
+import android.widget.ImageView;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Draw time of a large bitmap against zoom level. PhotoView only draws the part of the bitmap
+ * that is on screen, the plain ImageView with the same matrix draws all of it, so the gap should
+ * widen as the zoom grows.
+ */
+@RunWith(Parameterized.class)
+public class DrawBenchmark {
+
+    private static final int VIEW_WIDTH = 1080;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int IMAGE_WIDTH = 4000;
+    private static final int IMAGE_HEIGHT = 3000;
+
+    @Parameterized.Parameters(name = "zoom={0}")
+    public static Collection<Object[]> zoomLevels() {
+        return Arrays.asList(new Object[][]{{1f}, {2f}, {4f}, {8f}});
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final float zoom;
+    private Bitmap image;
+    private Canvas canvas;
+    private PhotoView photoView;
+    private ImageView imageView;
+
+    public DrawBenchmark(float zoom) {
+        this.zoom = zoom;
+    }
+
+    @Before
+    public void setUp() {
+        image = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+        image.eraseColor(0xff336699);
+        canvas = new Canvas(Bitmap.createBitmap(VIEW_WIDTH, VIEW_HEIGHT, Bitmap.Config.ARGB_8888));
+        // Views need a looper to be created on
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+                photoView = new PhotoView(context);
+                photoView.setImageBitmap(image);
+                layout(photoView);
+                photoView.setScaleLevels(1f, 2f, 8f);
+                photoView.setScale(zoom);
+
+                imageView = new ImageView(context);
+                imageView.setScaleType(ImageView.ScaleType.MATRIX);
+                imageView.setImageBitmap(image);
+                layout(imageView);
+                imageView.setImageMatrix(photoView.getImageMatrix());
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        image.recycle();
+    }
+
+    @Test
+    public void photoView() {
+        final BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            photoView.draw(canvas);
+        }
+    }
+
+    @Test
+    public void imageView() {
+        final BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            imageView.draw(canvas);
+        }
+    }
+
+    private static void layout(View view) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(VIEW_WIDTH, View.MeasureSpec.EXACTLY),
+            View.MeasureSpec.makeMeasureSpec(VIEW_HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import android.graphics.Matrix;
+import android.graphics.Matrix.ScaleToFit;
+import android.graphics.RectF;
+
+/**
+ * A 2D affine transform held in six primitive floats. It mirrors the subset of
+ * {@link Matrix} that {@link PhotoViewAttacher} needs, so the gesture path can do its math
+ * without going through JNI. Values follow the layout of {@link Matrix}:
+ * <pre>
+ * | scaleX skewX  transX |
+ * | skewY  scaleY transY |
+ * |   0      0      1    |
+ * </pre>
+ * Every mutation bumps a version counter. The decomposed scale and rotation are derived from
+ * the values lazily and cached against that version, so repeated reads are field loads.
+ */
+final class AffineTransform {
+
+    // Same tolerance Skia uses to snap sin/cos results, so right angles stay exact
+    private static final float NEARLY_ZERO = 1f / (1 << 12);
+
+    private float mScaleX = 1f, mSkewX, mTransX;
+    private float mSkewY, mScaleY = 1f, mTransY;
+
+    // Only used when converting to and from a platform Matrix
+    private final float[] mValues = new float[9];
+
+    private int mVersion;
+    private int mDecomposedVersion = -1;
+    private float mScale;
+    private float mRotation;
+
+    void reset() {
+        mVersion++;
+        mScaleX = 1f;
+        mSkewX = 0f;
+        mTransX = 0f;
+        mSkewY = 0f;
+        mScaleY = 1f;
+        mTransY = 0f;
+    }
+
+    void set(AffineTransform src) {
+        mVersion++;
+        mScaleX = src.mScaleX;
+        mSkewX = src.mSkewX;
+        mTransX = src.mTransX;
+        mSkewY = src.mSkewY;
+        mScaleY = src.mScaleY;
+        mTransY = src.mTransY;
+    }
+
+    /**
+     * Copies the affine part of a platform matrix. Any perspective values are dropped.
+     */
+    void set(Matrix src) {
+        mVersion++;
+        src.getValues(mValues);
+        mScaleX = mValues[Matrix.MSCALE_X];
+        mSkewX = mValues[Matrix.MSKEW_X];
+        mTransX = mValues[Matrix.MTRANS_X];
+        mSkewY = mValues[Matrix.MSKEW_Y];
+        mScaleY = mValues[Matrix.MSCALE_Y];
+        mTransY = mValues[Matrix.MTRANS_Y];
+    }
+
+    /**
+     * Writes this transform into a platform matrix.
+     */
+    void get(Matrix dst) {
+        mValues[Matrix.MSCALE_X] = mScaleX;
+        mValues[Matrix.MSKEW_X] = mSkewX;
+        mValues[Matrix.MTRANS_X] = mTransX;
+        mValues[Matrix.MSKEW_Y] = mSkewY;
+        mValues[Matrix.MSCALE_Y] = mScaleY;
+        mValues[Matrix.MTRANS_Y] = mTransY;
+        mValues[Matrix.MPERSP_0] = 0f;
+        mValues[Matrix.MPERSP_1] = 0f;
+        mValues[Matrix.MPERSP_2] = 1f;
+        dst.setValues(mValues);
+    }
+
+    float getScaleX() {
+        return mScaleX;
+    }
+
+    float getSkewX() {
+        return mSkewX;
+    }
+
+    float getTransX() {
+        return mTransX;
+    }
+
+    float getSkewY() {
+        return mSkewY;
+    }
+
+    float getScaleY() {
+        return mScaleY;
+    }
+
+    float getTransY() {
+        return mTransY;
+    }
+
+    /**
+     * @return a counter that changes every time this transform is mutated
+     */
+    int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the uniform scale of this transform, ignoring rotation
+     */
+    float getScale() {
+        decompose();
+        return mScale;
+    }
+
+    /**
+     * @return the rotation of this transform in degrees, in the range (-180, 180]
+     */
+    float getRotation() {
+        decompose();
+        return mRotation;
+    }
+
+    /**
+     * @return true if this transform only scales uniformly, rotates and translates, so that
+     * {@link #getScale()} and {@link #getRotation()} describe it fully
+     */
+    boolean isSimilarity() {
+        final float tolerance = NEARLY_ZERO
+            * Math.max(Math.abs(mScaleX) + Math.abs(mSkewX), Math.abs(mSkewY) + Math.abs(mScaleY));
+        return Math.abs(mScaleX - mScaleY) <= tolerance && Math.abs(mSkewX + mSkewY) <= tolerance;
+    }
+
+    private void decompose() {
+        if (mDecomposedVersion == mVersion) {
+            return;
+        }
+        mScale = (float) Math.sqrt(mScaleX * mScaleX + mSkewY * mSkewY);
+        mRotation = (float) Math.toDegrees(Math.atan2(mSkewY, mScaleX));
+        mDecomposedVersion = mVersion;
+    }
+
+    void setScale(float sx, float sy, float px, float py) {
+        mVersion++;
+        mScaleX = sx;
+        mSkewX = 0f;
+        mTransX = px - sx * px;
+        mSkewY = 0f;
+        mScaleY = sy;
+        mTransY = py - sy * py;
+    }
+
+    void setRotate(float degrees) {
+        reset();
+        postRotate(degrees);
+    }
+
+    void postTranslate(float dx, float dy) {
+        if (dx == 0f && dy == 0f) {
+            return;
+        }
+        mVersion++;
+        mTransX += dx;
+        mTransY += dy;
+    }
+
+    void postScale(float sx, float sy) {
+        postScale(sx, sy, 0f, 0f);
+    }
+
+    void postScale(float sx, float sy, float px, float py) {
+        mVersion++;
+        mScaleX *= sx;
+        mSkewX *= sx;
+        mTransX = sx * (mTransX - px) + px;
+        mSkewY *= sy;
+        mScaleY *= sy;
+        mTransY = sy * (mTransY - py) + py;
+    }
+
+    void postRotate(float degrees) {
+        postRotate(degrees, 0f, 0f);
+    }
+
+    void postRotate(float degrees, float px, float py) {
+        final double radians = Math.toRadians(degrees);
+        float sin = (float) Math.sin(radians);
+        float cos = (float) Math.cos(radians);
+        if (Math.abs(sin) <= NEARLY_ZERO) {
+            sin = 0f;
+        }
+        if (Math.abs(cos) <= NEARLY_ZERO) {
+            cos = 0f;
+        }
+        postConcat(cos, -sin, px - cos * px + sin * py,
+            sin, cos, py - sin * px - cos * py);
+    }
+
+    /**
+     * this = other * this
+     */
+    void postConcat(AffineTransform other) {
+        postConcat(other.mScaleX, other.mSkewX, other.mTransX,
+            other.mSkewY, other.mScaleY, other.mTransY);
+    }
+
+    /**
+     * this = a * b, i.e. b is applied first. Either argument may be this transform.
+     */
+    void setConcat(AffineTransform a, AffineTransform b) {
+        mVersion++;
+        final float scaleX = a.mScaleX * b.mScaleX + a.mSkewX * b.mSkewY;
+        final float skewX = a.mScaleX * b.mSkewX + a.mSkewX * b.mScaleY;
+        final float transX = a.mScaleX * b.mTransX + a.mSkewX * b.mTransY + a.mTransX;
+        final float skewY = a.mSkewY * b.mScaleX + a.mScaleY * b.mSkewY;
+        final float scaleY = a.mSkewY * b.mSkewX + a.mScaleY * b.mScaleY;
+        final float transY = a.mSkewY * b.mTransX + a.mScaleY * b.mTransY + a.mTransY;
+        mScaleX = scaleX;
+        mSkewX = skewX;
+        mTransX = transX;
+        mSkewY = skewY;
+        mScaleY = scaleY;
+        mTransY = transY;
+    }
+
+    private void postConcat(float oScaleX, float oSkewX, float oTransX,
+        float oSkewY, float oScaleY, float oTransY) {
+        mVersion++;
+        final float scaleX = oScaleX * mScaleX + oSkewX * mSkewY;
+        final float skewX = oScaleX * mSkewX + oSkewX * mScaleY;
+        final float transX = oScaleX * mTransX + oSkewX * mTransY + oTransX;
+        final float skewY = oSkewY * mScaleX + oScaleY * mSkewY;
+        final float scaleY = oSkewY * mSkewX + oScaleY * mScaleY;
+        final float transY = oSkewY * mTransX + oScaleY * mTransY + oTransY;
+        mScaleX = scaleX;
+        mSkewX = skewX;
+        mTransX = transX;
+        mSkewY = skewY;
+        mScaleY = scaleY;
+        mTransY = transY;
+    }
+
+    /**
+     * Same as {@link Matrix#setRectToRect(RectF, RectF, ScaleToFit)}, taking the rect edges
+     * directly so callers do not need to allocate.
+     */
+    void setRectToRect(float srcLeft, float srcTop, float srcRight, float srcBottom,
+        float dstLeft, float dstTop, float dstRight, float dstBottom, ScaleToFit stf) {
+        final float srcWidth = srcRight - srcLeft;
+        final float srcHeight = srcBottom - srcTop;
+        reset();
+        if (srcWidth <= 0 || srcHeight <= 0) {
+            return;
+        }
+        final float dstWidth = dstRight - dstLeft;
+        final float dstHeight = dstBottom - dstTop;
+        float sx = dstWidth / srcWidth;
+        float sy = dstHeight / srcHeight;
+        boolean xLarger = false;
+        if (stf != ScaleToFit.FILL) {
+            if (sx > sy) {
+                xLarger = true;
+                sx = sy;
+            } else {
+                sy = sx;
+            }
+        }
+        float tx = dstLeft - srcLeft * sx;
+        float ty = dstTop - srcTop * sy;
+        if (stf == ScaleToFit.CENTER || stf == ScaleToFit.END) {
+            float diff = xLarger ? dstWidth - srcWidth * sy : dstHeight - srcHeight * sy;
+            if (stf == ScaleToFit.CENTER) {
+                diff /= 2f;
+            }
+            if (xLarger) {
+                tx += diff;
+            } else {
+                ty += diff;
+            }
+        }
+        mScaleX = sx;
+        mScaleY = sy;
+        mTransX = tx;
+        mTransY = ty;
+    }
+
+    /**
+     * Maps the rect in place, leaving it as the bounds of the transformed corners.
+     */
+    void mapRect(RectF rect) {
+        final float l = rect.left, t = rect.top, r = rect.right, b = rect.bottom;
+        final float x0 = mScaleX * l + mSkewX * t + mTransX;
+        final float y0 = mSkewY * l + mScaleY * t + mTransY;
+        final float x1 = mScaleX * r + mSkewX * t + mTransX;
+        final float y1 = mSkewY * r + mScaleY * t + mTransY;
+        final float x2 = mScaleX * r + mSkewX * b + mTransX;
+        final float y2 = mSkewY * r + mScaleY * b + mTransY;
+        final float x3 = mScaleX * l + mSkewX * b + mTransX;
+        final float y3 = mSkewY * l + mScaleY * b + mTransY;
+        rect.left = Math.min(Math.min(x0, x1), Math.min(x2, x3));
+        rect.top = Math.min(Math.min(y0, y1), Math.min(y2, y3));
+        rect.right = Math.max(Math.max(x0, x1), Math.max(x2, x3));
+        rect.bottom = Math.max(Math.max(y0, y1), Math.max(y2, y3));
+    }
+
+    /**
+     * Maps the x, y pairs in place.
+     */
+    void mapPoints(float[] pts) {
+        for (int i = 0; i + 1 < pts.length; i += 2) {
+            final float x = pts[i], y = pts[i + 1];
+            pts[i] = mScaleX * x + mSkewX * y + mTransX;
+            pts[i + 1] = mSkewY * x + mScaleY * y + mTransY;
+        }
+    }
+
+    /**
+     * Writes the inverse of this transform into dst, which may be this transform.
+     *
+     * @return false if this transform cannot be inverted, in which case dst is untouched
+     */
+    boolean invert(AffineTransform dst) {
+        final float det = mScaleX * mScaleY - mSkewX * mSkewY;
+        if (det == 0f || Float.isNaN(det) || Float.isInfinite(det)) {
+            return false;
+        }
+        final float invDet = 1f / det;
+        final float scaleX = mScaleY * invDet;
+        final float skewX = -mSkewX * invDet;
+        final float transX = (mSkewX * mTransY - mScaleY * mTransX) * invDet;
+        final float skewY = -mSkewY * invDet;
+        final float scaleY = mScaleX * invDet;
+        final float transY = (mSkewY * mTransX - mScaleX * mTransY) * invDet;
+        dst.mScaleX = scaleX;
+        dst.mSkewX = skewX;
+        dst.mTransX = transX;
+        dst.mSkewY = skewY;
+        dst.mScaleY = scaleY;
+        dst.mTransY = transY;
+        dst.mVersion++;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "AffineTransform{[" + mScaleX + ", " + mSkewX + ", " + mTransX + "]["
+            + mSkewY + ", " + mScaleY + ", " + mTransY + "]}";
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.ArrayList;
+
+/**
+ * Runs the animations of a {@link PhotoViewAttacher} off {@link Choreographer} frame callbacks.
+ * Every animation sees the same vsync timestamp for a frame, so zoom, fling and touch updates
+ * stay in step, and time is measured in nanoseconds rather than wall-clock milliseconds.
+ * <p>
+ * All drivers in the process share a single frame callback, so a screen full of PhotoViews
+ * costs one callback per frame however many of them animate. Drivers of views that are detached
+ * are set aside until the view is attached again, and those of views that are not shown are
+ * skipped. The animations are time based, so they catch up on the first frame they run again.
+ */
+class AnimationDriver implements View.OnAttachStateChangeListener {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    // How long to wait before looking again when every running animation is on a hidden view
+    private static final long HIDDEN_POLL_MILLIS = 100;
+
+    private static final FrameScheduler sScheduler = new FrameScheduler();
+
+    interface Animation {
+
+        /**
+         * Called once per frame while the animation is running.
+         *
+         * @param frameTimeNanos    the vsync time of the frame being produced
+         * @param deadlineNanos     the time the frame is expected to reach the display. Time
+         *                          based animations should interpolate against this value
+         * @return true to keep running on the next frame, false when done
+         */
+        boolean onFrame(long frameTimeNanos, long deadlineNanos);
+    }
+
+    private final View mView;
+    private final ArrayList<Animation> mAnimations = new ArrayList<>();
+    // Copy of mAnimations taken at the start of each frame, reused to not allocate
+    private final ArrayList<Animation> mFrameAnimations = new ArrayList<>();
+    private boolean mAttached;
+    private long mFrameIntervalNanos = -1;
+
+    AnimationDriver(View view) {
+        mView = view;
+        mAttached = view.getWindowToken() != null;
+        // The display, and with it the refresh rate, is only known once attached
+        view.addOnAttachStateChangeListener(this);
+    }
+
+    /**
+     * @return how many animations, across every PhotoView in the process, ran in the last frame
+     */
+    static int getActiveAnimationCount() {
+        return sScheduler.mActiveCount;
+    }
+
+    /**
+     * @return how many running animations, across every PhotoView in the process, were skipped
+     * in the last frame because their view was detached or not shown
+     */
+    static int getSkippedAnimationCount() {
+        return sScheduler.mSkippedCount;
+    }
+
+    /**
+     * Starts the animation on the next frame. The first frame runs within the current vsync when
+     * called from input handling, so there is no frame of delay. Starting an animation that is
+     * already running does nothing.
+     */
+    void start(Animation animation) {
+        if (!mAnimations.contains(animation)) {
+            mAnimations.add(animation);
+        }
+        if (mAttached) {
+            sScheduler.add(this);
+        }
+    }
+
+    void cancel(Animation animation) {
+        mAnimations.remove(animation);
+        if (mAnimations.isEmpty()) {
+            sScheduler.remove(this);
+        }
+    }
+
+    boolean isRunning(Animation animation) {
+        return mAnimations.contains(animation);
+    }
+
+    /**
+     * @return the duration of a frame on the display the view is on, in nanoseconds
+     */
+    long getFrameIntervalNanos() {
+        if (mFrameIntervalNanos < 0) {
+            mFrameIntervalNanos = (long) (NANOS_PER_SECOND / Compat.getRefreshRate(mView));
+        }
+        return mFrameIntervalNanos;
+    }
+
+    @Override
+    public void onViewAttachedToWindow(View v) {
+        mAttached = true;
+        mFrameIntervalNanos = -1;
+        if (!mAnimations.isEmpty()) {
+            // Pick up where we were set aside
+            sScheduler.add(this);
+        }
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(View v) {
+        mAttached = false;
+        mFrameIntervalNanos = -1;
+    }
+
+    private void doFrame(long frameTimeNanos) {
+        final long deadlineNanos = frameTimeNanos + getFrameIntervalNanos();
+        // Run a snapshot, so animations can finish, start or cancel others while we run. One
+        // cancelled by an earlier one this frame is skipped, one started waits for the next frame
+        final ArrayList<Animation> animations = mFrameAnimations;
+        for (int i = 0, size = mAnimations.size(); i < size; i++) {
+            animations.add(mAnimations.get(i));
+        }
+        for (int i = 0, size = animations.size(); i < size; i++) {
+            final Animation animation = animations.get(i);
+            if (!mAnimations.contains(animation)) {
+                continue;
+            }
+            if (!animation.onFrame(frameTimeNanos, deadlineNanos)) {
+                mAnimations.remove(animation);
+            }
+        }
+        animations.clear();
+    }
+
+    /**
+     * The one frame callback every driver with running animations is registered with.
+     */
+    private static final class FrameScheduler implements Choreographer.FrameCallback {
+
+        private final ArrayList<AnimationDriver> mDrivers = new ArrayList<>();
+        // Copy of mDrivers taken at the start of each frame, reused to not allocate
+        private final ArrayList<AnimationDriver> mFrameDrivers = new ArrayList<>();
+        private boolean mFramePosted;
+        // Whether the posted frame is a delayed one, polling for hidden views to come back
+        private boolean mFrameDelayed;
+        int mActiveCount, mSkippedCount;
+
+        void add(AnimationDriver driver) {
+            if (!mDrivers.contains(driver)) {
+                mDrivers.add(driver);
+            }
+            if (mFramePosted && mFrameDelayed) {
+                // Someone can run now, do not make them wait for the poll
+                Choreographer.getInstance().removeFrameCallback(this);
+                mFramePosted = false;
+            }
+            post(false);
+        }
+
+        void remove(AnimationDriver driver) {
+            mDrivers.remove(driver);
+            if (mDrivers.isEmpty() && mFramePosted) {
+                mFramePosted = false;
+                Choreographer.getInstance().removeFrameCallback(this);
+            }
+        }
+
+        private void post(boolean delayed) {
+            if (mFramePosted) {
+                return;
+            }
+            mFramePosted = true;
+            mFrameDelayed = delayed;
+            if (delayed) {
+                Choreographer.getInstance().postFrameCallbackDelayed(this, HIDDEN_POLL_MILLIS);
+            } else {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFramePosted = false;
+            int active = 0, skipped = 0;
+            // Run a snapshot, so drivers can drop out, or add and cancel others, while we run.
+            // Each driver runs at most once, and not at all once removed by an earlier one
+            final ArrayList<AnimationDriver> drivers = mFrameDrivers;
+            for (int i = 0, size = mDrivers.size(); i < size; i++) {
+                drivers.add(mDrivers.get(i));
+            }
+            for (int i = 0, size = drivers.size(); i < size; i++) {
+                final AnimationDriver driver = drivers.get(i);
+                if (!mDrivers.contains(driver)) {
+                    continue;
+                }
+                if (!driver.mAttached) {
+                    // Comes back once attached again
+                    skipped += driver.mAnimations.size();
+                    mDrivers.remove(driver);
+                    continue;
+                }
+                if (!driver.mView.isShown()) {
+                    skipped += driver.mAnimations.size();
+                    continue;
+                }
+                active += driver.mAnimations.size();
+                driver.doFrame(frameTimeNanos);
+                if (driver.mAnimations.isEmpty()) {
+                    mDrivers.remove(driver);
+                }
+            }
+            drivers.clear();
+            mActiveCount = active;
+            mSkippedCount = skipped;
+            if (!mDrivers.isEmpty()) {
+                // Only hidden views left, no need to wake up on every vsync for them
+                post(active == 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+
+/**
+ * {@link TileCache} of Bitmaps, sized in bytes. Pooled bitmaps are handed to decodes as
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}.
+ */
+class BitmapTileCache extends TileCache<Bitmap> {
+
+    // Tiles are always decoded as ARGB_8888
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int MAX_DEFAULT_SIZE = 64 * 1024 * 1024;
+
+    private static BitmapTileCache sInstance;
+
+    /**
+     * @return the cache shared by every tiled image in the process, so a pager of large images
+     * stays within one budget
+     */
+    static BitmapTileCache getInstance() {
+        if (sInstance == null) {
+            final int maxSize = (int) Math.min(MAX_DEFAULT_SIZE, Runtime.getRuntime().maxMemory() / 8);
+            sInstance = new BitmapTileCache(maxSize);
+        }
+        return sInstance;
+    }
+
+    BitmapTileCache(int maxSize) {
+        super(maxSize);
+    }
+
+    @Override
+    protected int sizeOf(Bitmap value) {
+        if (VERSION.SDK_INT >= VERSION_CODES.KITKAT) {
+            return getAllocationByteCountKitKat(value);
+        }
+        return value.getByteCount();
+    }
+
+    @Override
+    protected boolean canReuse(Bitmap candidate, int width, int height) {
+        if (candidate.isRecycled() || !candidate.isMutable()) {
+            return false;
+        }
+        if (VERSION.SDK_INT >= VERSION_CODES.KITKAT) {
+            // Any large enough allocation of the same config can be reconfigured
+            return candidate.getConfig() == Bitmap.Config.ARGB_8888
+                && getAllocationByteCountKitKat(candidate) >= width * height * BYTES_PER_PIXEL;
+        }
+        // Before KitKat, inBitmap has to match the decoded size exactly
+        return candidate.getWidth() == width && candidate.getHeight() == height;
+    }
+
+    @Override
+    protected void discard(Bitmap value) {
+        value.recycle();
+    }
+
+    @TargetApi(19)
+    private static int getAllocationByteCountKitKat(Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+
+/**
+ * A {@link TileSource} cutting tiles out of a bitmap already in memory, scaling them down for
+ * the coarser levels. Mostly useful to exercise tiled rendering in tests and samples, as the
+ * whole image is resident anyway.
+ */
+public class BitmapTileSource implements TileSource {
+
+    private static final int DEFAULT_TILE_SIZE = 256;
+
+    private final Bitmap mBitmap;
+    private final int mTileSize;
+    private final int mLevelCount;
+
+    /**
+     * @param bitmap the image. It still belongs to the caller and is not recycled on close
+     */
+    public BitmapTileSource(Bitmap bitmap) {
+        this(bitmap, DEFAULT_TILE_SIZE);
+    }
+
+    public BitmapTileSource(Bitmap bitmap, int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive");
+        }
+        mBitmap = bitmap;
+        mTileSize = tileSize;
+        mLevelCount = Util.getLevelCount(bitmap.getWidth(), bitmap.getHeight(), tileSize);
+    }
+
+    @Override
+    public int getWidth() {
+        return mBitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mBitmap.getHeight();
+    }
+
+    @Override
+    public int getLevelCount() {
+        return mLevelCount;
+    }
+
+    @Override
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    @Override
+    public int getTileOverlap() {
+        return 0;
+    }
+
+    @Override
+    public Bitmap openTile(int level, int col, int row, Bitmap reusable) {
+        final int span = mTileSize << level;
+        final int left = col * span, top = row * span;
+        final int width = Math.min(mBitmap.getWidth(), left + span) - left;
+        final int height = Math.min(mBitmap.getHeight(), top + span) - top;
+        if (width <= 0 || height <= 0 || mBitmap.isRecycled()) {
+            return null;
+        }
+        final Bitmap tile;
+        if (level == 0) {
+            tile = Bitmap.createBitmap(mBitmap, left, top, width, height);
+        } else {
+            final Matrix scale = new Matrix();
+            final float factor = 1f / (1 << level);
+            scale.setScale(factor, factor);
+            tile = Bitmap.createBitmap(mBitmap, left, top, width, height, scale, true);
+        }
+        if (tile == mBitmap) {
+            // An immutable bitmap covered by a single tile comes back as is, and tiles get
+            // recycled, so hand out a copy of the caller's bitmap instead
+            final Bitmap.Config config = mBitmap.getConfig();
+            return mBitmap.copy(config != null ? config : Bitmap.Config.ARGB_8888, false);
+        }
+        return tile;
+    }
+
+    @Override
+    public void close() {
+    }
+}
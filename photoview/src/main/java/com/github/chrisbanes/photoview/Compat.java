@@ -18,22 +18,29 @@ package com.github.chrisbanes.photoview;
 import android.annotation.TargetApi;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
+import android.view.Display;
 import android.view.View;
 
 class Compat {
 
-    private static final int SIXTY_FPS_INTERVAL = 1000 / 60;
+    private static final float DEFAULT_REFRESH_RATE = 60f;
 
-    public static void postOnAnimation(View view, Runnable runnable) {
-        if (VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN) {
-            postOnAnimationJellyBean(view, runnable);
+    public static float getRefreshRate(View view) {
+        if (VERSION.SDK_INT >= VERSION_CODES.JELLY_BEAN_MR1) {
+            return getRefreshRateJellyBeanMr1(view);
         } else {
-            view.postDelayed(runnable, SIXTY_FPS_INTERVAL);
+            return DEFAULT_REFRESH_RATE;
         }
     }
 
-    @TargetApi(16)
-    private static void postOnAnimationJellyBean(View view, Runnable runnable) {
-        view.postOnAnimation(runnable);
+    @TargetApi(17)
+    private static float getRefreshRateJellyBeanMr1(View view) {
+        final Display display = view.getDisplay();
+        if (display == null) {
+            return DEFAULT_REFRESH_RATE;
+        }
+        final float refreshRate = display.getRefreshRate();
+        // Some devices report nonsense here, fall back to 60Hz rather than stalling animations
+        return refreshRate >= 1f ? refreshRate : DEFAULT_REFRESH_RATE;
     }
 }
@@ -85,22 +85,6 @@ class CustomGestureDetector {
         mDetector = new ScaleGestureDetector(context, mScaleListener);
     }
 
-    private float getActiveX(MotionEvent ev) {
-        try {
-            return ev.getX(mActivePointerIndex);
-        } catch (Exception e) {
-            return ev.getX();
-        }
-    }
-
-    private float getActiveY(MotionEvent ev) {
-        try {
-            return ev.getY(mActivePointerIndex);
-        } catch (Exception e) {
-            return ev.getY();
-        }
-    }
-
     public boolean isScaling() {
         return mDetector.isInProgress();
     }
@@ -112,47 +96,70 @@ class CustomGestureDetector {
     public boolean onTouchEvent(MotionEvent ev) {
         try {
             mDetector.onTouchEvent(ev);
-            return processTouchEvent(ev);
         } catch (IllegalArgumentException e) {
             // Fix for support lib bug, happening when onDestroy is called
-            return true;
         }
+        return processTouchEvent(ev);
     }
 
     private boolean processTouchEvent(MotionEvent ev) {
-        final int action = ev.getAction();
-        switch (action & MotionEvent.ACTION_MASK) {
+        switch (ev.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
                 mActivePointerId = ev.getPointerId(0);
+                mActivePointerIndex = 0;
 
                 mVelocityTracker = VelocityTracker.obtain();
                 if (null != mVelocityTracker) {
                     mVelocityTracker.addMovement(ev);
                 }
 
-                mLastTouchX = getActiveX(ev);
-                mLastTouchY = getActiveY(ev);
+                mLastTouchX = ev.getX(0);
+                mLastTouchY = ev.getY(0);
                 mIsDragging = false;
                 break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                // Keep following the current pointer. Only adopt the new one if we somehow
+                // lost track of ours, e.g. the stream started without an ACTION_DOWN
+                if (!resolveActivePointer(ev)) {
+                    final int newPointerIndex = ev.getActionIndex();
+                    mActivePointerId = ev.getPointerId(newPointerIndex);
+                    mActivePointerIndex = newPointerIndex;
+                    mLastTouchX = ev.getX(newPointerIndex);
+                    mLastTouchY = ev.getY(newPointerIndex);
+                }
+                if (null != mVelocityTracker) {
+                    mVelocityTracker.addMovement(ev);
+                }
+                break;
             case MotionEvent.ACTION_MOVE:
-                final float x = getActiveX(ev);
-                final float y = getActiveY(ev);
-                final float dx = x - mLastTouchX, dy = y - mLastTouchY;
+                if (!resolveActivePointer(ev)) {
+                    // Our pointer is not part of this event, start tracking the first one
+                    // from where it is now so the content does not jump
+                    mActivePointerId = ev.getPointerId(0);
+                    mActivePointerIndex = 0;
+                    mLastTouchX = ev.getX(0);
+                    mLastTouchY = ev.getY(0);
+                    break;
+                }
+                // The tracker reads every historical sample of the batch, so feed it all
+                // movement, including what happens before the touch slop is crossed
+                if (null != mVelocityTracker) {
+                    mVelocityTracker.addMovement(ev);
+                }
+
+                final float x = ev.getX(mActivePointerIndex);
+                final float y = ev.getY(mActivePointerIndex);
 
                 if (!mIsDragging) {
-                    // Use Pythagoras to see if drag length is larger than
-                    // touch slop
-                    mIsDragging = Math.sqrt((dx * dx) + (dy * dy)) >= mTouchSlop;
+                    mIsDragging = exceedsTouchSlop(ev, mActivePointerIndex);
                 }
 
                 if (mIsDragging) {
-                    mListener.onDrag(dx, dy);
+                    // A single delta for the whole batch, the intermediate samples would
+                    // sum to the same translation
+                    mListener.onDrag(x - mLastTouchX, y - mLastTouchY);
                     mLastTouchX = x;
                     mLastTouchY = y;
-
-                    if (null != mVelocityTracker) {
-                        mVelocityTracker.addMovement(ev);
-                    }
                 }
                 break;
             case MotionEvent.ACTION_CANCEL:
@@ -164,27 +171,25 @@ class CustomGestureDetector {
                 }
                 break;
             case MotionEvent.ACTION_UP:
-                mActivePointerId = INVALID_POINTER_ID;
-                if (mIsDragging) {
-                    if (null != mVelocityTracker) {
-                        mLastTouchX = getActiveX(ev);
-                        mLastTouchY = getActiveY(ev);
-
-                        // Compute velocity within the last 1000ms
-                        mVelocityTracker.addMovement(ev);
-                        mVelocityTracker.computeCurrentVelocity(1000);
-
-                        final float vX = mVelocityTracker.getXVelocity(), vY = mVelocityTracker
-                                .getYVelocity();
-
-                        // If the velocity is greater than minVelocity, call
-                        // listener
-                        if (Math.max(Math.abs(vX), Math.abs(vY)) >= mMinimumVelocity) {
-                            mListener.onFling(mLastTouchX, mLastTouchY, -vX,
-                                    -vY);
-                        }
+                if (mIsDragging && null != mVelocityTracker && resolveActivePointer(ev)) {
+                    mLastTouchX = ev.getX(mActivePointerIndex);
+                    mLastTouchY = ev.getY(mActivePointerIndex);
+
+                    // Compute velocity within the last 1000ms
+                    mVelocityTracker.addMovement(ev);
+                    mVelocityTracker.computeCurrentVelocity(1000);
+
+                    final float vX = mVelocityTracker.getXVelocity(mActivePointerId),
+                            vY = mVelocityTracker.getYVelocity(mActivePointerId);
+
+                    // If the velocity is greater than minVelocity, call
+                    // listener
+                    if (Math.max(Math.abs(vX), Math.abs(vY)) >= mMinimumVelocity) {
+                        mListener.onFling(mLastTouchX, mLastTouchY, -vX,
+                                -vY);
                     }
                 }
+                mActivePointerId = INVALID_POINTER_ID;
 
                 // Recycle Velocity Tracker
                 if (null != mVelocityTracker) {
@@ -193,22 +198,61 @@ class CustomGestureDetector {
                 }
                 break;
             case MotionEvent.ACTION_POINTER_UP:
-                final int pointerIndex = Util.getPointerIndex(ev.getAction());
+                final int pointerIndex = ev.getActionIndex();
                 final int pointerId = ev.getPointerId(pointerIndex);
                 if (pointerId == mActivePointerId) {
                     // This was our active pointer going up. Choose a new
-                    // active pointer and adjust accordingly.
+                    // active pointer and adjust accordingly. A POINTER_UP
+                    // always carries at least two pointers.
                     final int newPointerIndex = pointerIndex == 0 ? 1 : 0;
                     mActivePointerId = ev.getPointerId(newPointerIndex);
                     mLastTouchX = ev.getX(newPointerIndex);
                     mLastTouchY = ev.getY(newPointerIndex);
                 }
+                if (null != mVelocityTracker) {
+                    mVelocityTracker.addMovement(ev);
+                }
                 break;
         }
+        return true;
+    }
+
+    /**
+     * Checks whether the pointer has moved further than the touch slop from where it went down,
+     * at any sample of this batch. Input is batched per frame, so a fast swipe can cross the
+     * slop on a historical sample and come back within it on the latest one.
+     */
+    private boolean exceedsTouchSlop(MotionEvent ev, int pointerIndex) {
+        final float startX = mLastTouchX, startY = mLastTouchY;
+        final float slopSquare = mTouchSlop * mTouchSlop;
+        final int historySize = ev.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            final float dx = ev.getHistoricalX(pointerIndex, h) - startX;
+            final float dy = ev.getHistoricalY(pointerIndex, h) - startY;
+            if (dx * dx + dy * dy >= slopSquare) {
+                return true;
+            }
+        }
+        final float dx = ev.getX(pointerIndex) - startX;
+        final float dy = ev.getY(pointerIndex) - startY;
+        return dx * dx + dy * dy >= slopSquare;
+    }
 
-        mActivePointerIndex = ev
-                .findPointerIndex(mActivePointerId != INVALID_POINTER_ID ? mActivePointerId
-                        : 0);
+    /**
+     * Looks up the index of the active pointer in this event. Pointer indices are only valid
+     * for the event they came from, so this has to run before every coordinate read.
+     *
+     * @return false if there is no active pointer or it is not part of this event
+     */
+    private boolean resolveActivePointer(MotionEvent ev) {
+        if (mActivePointerId == INVALID_POINTER_ID) {
+            return false;
+        }
+        final int index = ev.findPointerIndex(mActivePointerId);
+        if (index < 0 || index >= ev.getPointerCount()) {
+            return false;
+        }
+        mActivePointerIndex = index;
         return true;
     }
 }
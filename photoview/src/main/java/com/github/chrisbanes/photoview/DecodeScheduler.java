@@ -0,0 +1,206 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs image decodes for every {@link PhotoView} in the process on one small pool of background
+ * threads. Queued jobs run by priority, visible content first, and can be cancelled or
+ * re-prioritised until a worker picks them up, so decodes for content that scrolled away do not
+ * hold up the ones that matter.
+ */
+final class DecodeScheduler {
+
+    static final int PRIORITY_VISIBLE = 0;
+    static final int PRIORITY_NEIGHBOUR = 1;
+    static final int PRIORITY_PREFETCH = 2;
+
+    private static final String LOG_TAG = "DecodeScheduler";
+    private static final int MAX_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    private static DecodeScheduler sInstance;
+
+    /**
+     * A decode that runs on a worker thread and delivers its result on the UI thread.
+     *
+     * @param <T> the type of the decoded result
+     */
+    abstract static class Job<T> implements Runnable, Comparable<Job<?>> {
+
+        private DecodeScheduler mScheduler;
+        private volatile int mPriority;
+        private long mSequence;
+        private volatile boolean mCancelled;
+
+        /**
+         * Called on a worker thread.
+         *
+         * @return the result, or null if the decode failed. Exceptions and running out of memory
+         * are treated as a failed decode
+         */
+        abstract T decode();
+
+        /**
+         * Called on the UI thread with the result, unless the job was cancelled first.
+         */
+        abstract void onDecoded(T result);
+
+        /**
+         * Called on the UI thread instead of {@link #onDecoded(Object)} when the job was
+         * cancelled, so the result can be released. It is called exactly once for a cancelled
+         * job. The result is null if the job was cancelled before it started, in which case this
+         * is called from {@link #cancel()}, or posted right after it if a worker had just taken
+         * the job off the queue.
+         */
+        void onCancelled(T result) {
+        }
+
+        int getPriority() {
+            return mPriority;
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Drops the job if it is still queued. A decode already running finishes, and its result
+         * goes to {@link #onCancelled(Object)}. Must be called on the UI thread.
+         */
+        void cancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            if (mScheduler != null && mScheduler.mExecutor.remove(this)) {
+                onCancelled(null);
+            }
+        }
+
+        @Override
+        public final void run() {
+            T result = null;
+            // Cancelled after a worker took the job, but before it started: cancel() could not
+            // remove it, so the callback is ours to deliver
+            if (!mCancelled) {
+                try {
+                    result = decode();
+                } catch (RuntimeException | OutOfMemoryError e) {
+                    // Still deliver, so whoever waits for the job can let go of it
+                    Log.w(LOG_TAG, "Decode failed", e);
+                    result = null;
+                }
+            }
+            final T delivered = result;
+            mScheduler.mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled) {
+                        onCancelled(delivered);
+                    } else {
+                        onDecoded(delivered);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Job<?> other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            // First in, first out within a priority
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * @return the scheduler shared by every view in the process
+     */
+    static DecodeScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new DecodeScheduler();
+        }
+        return sInstance;
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private DecodeScheduler() {
+        // Leave a core for the UI and render threads
+        final int threads = Math.max(1,
+            Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        // Only core threads are ever started with an unbounded queue, let them time out instead
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<Runnable>(), new DecodeThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the job. A job can only be submitted once.
+     */
+    void submit(Job<?> job, int priority) {
+        job.mScheduler = this;
+        job.mPriority = priority;
+        job.mSequence = mSequence.getAndIncrement();
+        mExecutor.execute(job);
+    }
+
+    /**
+     * Moves a queued job to another priority. Does nothing for a job that already started or
+     * was cancelled.
+     */
+    void setPriority(Job<?> job, int priority) {
+        if (job.mPriority == priority || job.mCancelled) {
+            return;
+        }
+        // The queue only orders jobs as they are inserted
+        if (mExecutor.remove(job)) {
+            job.mPriority = priority;
+            mExecutor.execute(job);
+        }
+    }
+
+    private static class DecodeThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "PhotoView decode #" + mCount.incrementAndGet());
+        }
+    }
+}
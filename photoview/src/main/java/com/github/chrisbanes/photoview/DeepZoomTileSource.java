@@ -0,0 +1,247 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * A {@link TileSource} reading a pre-tiled Deep Zoom (DZI) image pyramid, either unpacked in a
+ * directory or packed in a zip file. The layout is the usual one: a {@code name.dzi} descriptor
+ * next to a {@code name_files} directory holding one directory per level, numbered from 0 for
+ * the 1x1 level, each holding {@code col_row.format} tiles.
+ */
+public class DeepZoomTileSource implements TileSource {
+
+    private static final String DESCRIPTOR_SUFFIX = ".dzi";
+    private static final String FILES_SUFFIX = "_files";
+
+    private final int mWidth, mHeight;
+    private final int mTileSize, mOverlap;
+    private final String mFormat;
+    // Deep Zoom numbers levels from the smallest, so this is the full resolution one
+    private final int mMaxLevel;
+    // Exactly one of these is set
+    private final File mTilesDirectory;
+    private final ZipFile mZipFile;
+    private final String mZipPrefix;
+
+    /**
+     * @param descriptor the {@code .dzi} file, with the tiles in the {@code _files} directory
+     *                   next to it
+     */
+    public static DeepZoomTileSource fromDirectory(File descriptor) throws IOException {
+        final InputStream stream = new FileInputStream(descriptor);
+        try {
+            final String name = descriptor.getName();
+            final File tiles = new File(descriptor.getParentFile(), stripSuffix(name) + FILES_SUFFIX);
+            return new DeepZoomTileSource(stream, tiles, null, null);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * @param zip a zip file holding a {@code .dzi} descriptor and its {@code _files} directory.
+     *            If there are several descriptors, the one closest to the root is used
+     */
+    public static DeepZoomTileSource fromZip(File zip) throws IOException {
+        final ZipFile zipFile = new ZipFile(zip);
+        boolean success = false;
+        try {
+            ZipEntry descriptor = null;
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().endsWith(DESCRIPTOR_SUFFIX)
+                    && (descriptor == null || depth(entry.getName()) < depth(descriptor.getName()))) {
+                    descriptor = entry;
+                }
+            }
+            if (descriptor == null) {
+                throw new IOException("No " + DESCRIPTOR_SUFFIX + " descriptor in " + zip);
+            }
+            final InputStream stream = zipFile.getInputStream(descriptor);
+            try {
+                final String prefix = stripSuffix(descriptor.getName()) + FILES_SUFFIX + "/";
+                final DeepZoomTileSource source = new DeepZoomTileSource(stream, null, zipFile, prefix);
+                success = true;
+                return source;
+            } finally {
+                stream.close();
+            }
+        } finally {
+            if (!success) {
+                zipFile.close();
+            }
+        }
+    }
+
+    private DeepZoomTileSource(InputStream descriptor, File tilesDirectory, ZipFile zipFile,
+        String zipPrefix) throws IOException {
+        final Element image;
+        final Element size;
+        try {
+            image = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(descriptor).getDocumentElement();
+            final NodeList sizes = image.getElementsByTagName("Size");
+            if (sizes.getLength() == 0) {
+                throw new IOException("Deep Zoom descriptor has no Size");
+            }
+            size = (Element) sizes.item(0);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid Deep Zoom descriptor", e);
+        }
+        mWidth = parseAttribute(size, "Width");
+        mHeight = parseAttribute(size, "Height");
+        mTileSize = parseAttribute(image, "TileSize");
+        mOverlap = parseAttribute(image, "Overlap");
+        mFormat = image.getAttribute("Format");
+        if (mWidth <= 0 || mHeight <= 0 || mTileSize <= 0 || mOverlap < 0 || mFormat.isEmpty()) {
+            throw new IOException("Invalid Deep Zoom descriptor");
+        }
+        int maxLevel = 0;
+        while ((1L << maxLevel) < Math.max(mWidth, mHeight)) {
+            maxLevel++;
+        }
+        mMaxLevel = maxLevel;
+        mTilesDirectory = tilesDirectory;
+        mZipFile = zipFile;
+        mZipPrefix = zipPrefix;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getLevelCount() {
+        return mMaxLevel + 1;
+    }
+
+    @Override
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    @Override
+    public int getTileOverlap() {
+        return mOverlap;
+    }
+
+    @Override
+    public Bitmap openTile(int level, int col, int row, Bitmap reusable) throws IOException {
+        final String path = (mMaxLevel - level) + "/" + col + "_" + row + "." + mFormat;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inBitmap = reusable;
+        try {
+            return decode(path, options);
+        } catch (IllegalArgumentException e) {
+            if (reusable == null) {
+                return null;
+            }
+        }
+        // The tile could not be decoded into the reused bitmap, try again with a fresh one
+        options.inBitmap = null;
+        try {
+            return decode(path, options);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mZipFile != null) {
+            try {
+                mZipFile.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private Bitmap decode(String path, BitmapFactory.Options options) throws IOException {
+        final InputStream stream;
+        if (mZipFile != null) {
+            try {
+                final ZipEntry entry = mZipFile.getEntry(mZipPrefix + path);
+                if (entry == null) {
+                    return null;
+                }
+                stream = mZipFile.getInputStream(entry);
+            } catch (IllegalStateException e) {
+                // Closed while tiles were still being read
+                return null;
+            }
+        } else {
+            final File file = new File(mTilesDirectory, path);
+            if (!file.isFile()) {
+                return null;
+            }
+            stream = new FileInputStream(file);
+        }
+        try {
+            return BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static int parseAttribute(Element element, String name) throws IOException {
+        try {
+            return Integer.parseInt(element.getAttribute(name));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + name + " in Deep Zoom descriptor", e);
+        }
+    }
+
+    private static String stripSuffix(String name) {
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static int depth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps decoded tiles on disk, so reopening a large image reads raw pixels back instead of
+ * decoding it again. Each tile is one file: a small header followed by the ARGB_8888 pixels
+ * exactly as {@link Bitmap#copyPixelsToBuffer(java.nio.Buffer)} lays them out. Files are
+ * memory-mapped both ways, so pixels go straight between the file and the Bitmap without a copy
+ * on the Java heap.
+ * <p>
+ * The cache has a size cap and is trimmed in least recently used order. An index file records
+ * the entries in that order. It is rewritten in the background a short while after a change or
+ * a read, collecting everything that happened meanwhile, so decodes do not wait on a disk flush
+ * per tile. Tiles are not flushed either: they are written to a temporary file and renamed into
+ * place, and the index is replaced the same way, so after a crash entries whose file is gone or
+ * short are dropped on load, tiles whose header never reached the disk are dropped when read,
+ * and files the index does not know about are deleted.
+ * <p>
+ * Thread safe. The cache directory is set up on a background thread, so
+ * {@link #getInstance(Context)} may be called anywhere, but {@link #get} and {@link #put} do disk
+ * IO and must not be called on the UI thread.
+ */
+final class DiskTileCache {
+
+    private static final String DIRECTORY = "photoview-tiles";
+    private static final String INDEX = "index";
+    private static final String INDEX_TEMP = "index.tmp";
+    private static final String TILE_SUFFIX = ".tile";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+    // How long changes are collected before the index is written
+    private static final long INDEX_WRITE_DELAY_MILLIS = 2000;
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    // "PVT1"
+    private static final int MAGIC = 0x50565431;
+    // Magic, width, height, flags
+    private static final int HEADER_SIZE = 16;
+    private static final int FLAG_HAS_ALPHA = 1;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static DiskTileCache sInstance;
+    private static long sMaxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * @return the cache shared by every view in the process, in the app's cache directory. Does
+     * no disk IO
+     */
+    static synchronized DiskTileCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DiskTileCache(context.getApplicationContext(), sMaxSize);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Sets the size cap of the shared cache, in bytes. Tiles over a lower cap are deleted in the
+     * background.
+     */
+    static synchronized void setMaxSize(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive");
+        }
+        sMaxSize = maxSize;
+        if (sInstance != null) {
+            sInstance.resize(maxSize);
+        }
+    }
+
+    private final Context mContext;
+    // Resolved on first use, as getCacheDir() may touch the disk
+    private File mDirectory;
+    private long mMaxSize;
+    // File name to size, oldest access first
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    private boolean mLoaded;
+
+    // A single thread, so index writes never overlap
+    private final ScheduledThreadPoolExecutor mIndexWriter;
+    private boolean mIndexWriteScheduled;
+    private final Runnable mWriteIndex = new Runnable() {
+        @Override
+        public void run() {
+            writeIndex();
+        }
+    };
+
+    DiskTileCache(Context context, long maxSize) {
+        mContext = context;
+        mMaxSize = maxSize;
+        mIndexWriter = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "PhotoView tile index");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mIndexWriter.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mIndexWriter.allowCoreThreadTimeOut(true);
+        // Read the index ahead of the first tile
+        mIndexWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DiskTileCache.this) {
+                    load();
+                }
+            }
+        });
+    }
+
+    private void resize(final long maxSize) {
+        mIndexWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DiskTileCache.this) {
+                    mMaxSize = maxSize;
+                    load();
+                    final long size = mSize;
+                    trimToSize();
+                    if (mSize != size) {
+                        scheduleIndexWrite();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads a tile back.
+     *
+     * @param image    identifies the image, the same across app launches
+     * @param reusable a bitmap the pixels may be written into, or null
+     * @return the tile, which is reusable if it could take the pixels, or null if the tile is
+     * not cached
+     */
+    Bitmap get(String image, int level, int col, int row, Bitmap reusable) {
+        final String name = fileName(image, level, col, row);
+        synchronized (this) {
+            load();
+            if (mEntries.get(name) == null) {
+                return null;
+            }
+            // The read moved the entry up, which the index should remember
+            scheduleIndexWrite();
+        }
+        RandomAccessFile file = null;
+        try {
+            // Once mapped, the pixels stay readable even if a trim deletes the file meanwhile
+            file = new RandomAccessFile(new File(mDirectory, name), "r");
+            final FileChannel channel = file.getChannel();
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final int magic = buffer.getInt();
+            final int width = buffer.getInt();
+            final int height = buffer.getInt();
+            final int flags = buffer.getInt();
+            if (magic != MAGIC || width <= 0 || height <= 0
+                || channel.size() != HEADER_SIZE + (long) width * height * BYTES_PER_PIXEL) {
+                remove(name);
+                return null;
+            }
+            final Bitmap bitmap = prepareBitmap(reusable, width, height);
+            bitmap.copyPixelsFromBuffer(buffer);
+            bitmap.setHasAlpha((flags & FLAG_HAS_ALPHA) != 0);
+            return bitmap;
+        } catch (IOException e) {
+            remove(name);
+            return null;
+        } catch (OutOfMemoryError e) {
+            return null;
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    /**
+     * Writes a tile, unless it is already cached. Only ARGB_8888 bitmaps are stored.
+     */
+    void put(String image, int level, int col, int row, Bitmap bitmap) {
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888
+            || bitmap.getRowBytes() != bitmap.getWidth() * BYTES_PER_PIXEL) {
+            return;
+        }
+        final String name = fileName(image, level, col, row);
+        synchronized (this) {
+            load();
+            if (mEntries.containsKey(name)) {
+                return;
+            }
+        }
+        final long size = HEADER_SIZE + (long) bitmap.getWidth() * bitmap.getHeight() * BYTES_PER_PIXEL;
+        // Unique per thread, in case two views write the same tile
+        final File temp = new File(mDirectory, name + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        RandomAccessFile file = null;
+        boolean written = false;
+        try {
+            file = new RandomAccessFile(temp, "rw");
+            file.setLength(size);
+            final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(bitmap.getWidth());
+            buffer.putInt(bitmap.getHeight());
+            buffer.putInt(bitmap.hasAlpha() ? FLAG_HAS_ALPHA : 0);
+            bitmap.copyPixelsToBuffer(buffer);
+            written = true;
+        } catch (IOException e) {
+            // Out of space or the cache directory went away, the tile just is not cached
+        } finally {
+            closeQuietly(file);
+        }
+        synchronized (this) {
+            // Another view may have written the same tile meanwhile
+            if (!written || mEntries.containsKey(name)
+                || !temp.renameTo(new File(mDirectory, name))) {
+                temp.delete();
+                return;
+            }
+            mEntries.put(name, size);
+            mSize += size;
+            trimToSize();
+            scheduleIndexWrite();
+        }
+    }
+
+    /**
+     * @return the bitmap the pixels of a tile of the given size are copied into
+     */
+    private static Bitmap prepareBitmap(Bitmap reusable, int width, int height) {
+        if (reusable != null && reusable.isMutable() && !reusable.isRecycled()
+            && reusable.getConfig() == Bitmap.Config.ARGB_8888) {
+            if (reusable.getWidth() == width && reusable.getHeight() == height) {
+                return reusable;
+            }
+            if (VERSION.SDK_INT >= VERSION_CODES.KITKAT
+                && reconfigureKitKat(reusable, width, height)) {
+                return reusable;
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    @TargetApi(19)
+    private static boolean reconfigureKitKat(Bitmap bitmap, int width, int height) {
+        if (bitmap.getAllocationByteCount() < width * height * BYTES_PER_PIXEL) {
+            return false;
+        }
+        bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+        return true;
+    }
+
+    private synchronized void remove(String name) {
+        final Long size = mEntries.remove(name);
+        if (size != null) {
+            mSize -= size;
+            new File(mDirectory, name).delete();
+            scheduleIndexWrite();
+        }
+    }
+
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> oldest = iterator.next();
+            mSize -= oldest.getValue();
+            new File(mDirectory, oldest.getKey()).delete();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Sets up the directory and reads the index on first use, dropping entries whose file is gone or incomplete and
+     * deleting files that never made it into the index.
+     */
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        mDirectory = new File(mContext.getCacheDir(), DIRECTORY);
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(new File(mDirectory, INDEX)));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int space = line.indexOf(' ');
+                if (space <= 0) {
+                    continue;
+                }
+                final String name = line.substring(0, space);
+                final long size;
+                try {
+                    size = Long.parseLong(line.substring(space + 1));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (new File(mDirectory, name).length() == size) {
+                    mEntries.put(name, size);
+                    mSize += size;
+                }
+            }
+        } catch (IOException e) {
+            // No index yet, or a broken one. Either way, start over from what we could read
+        } finally {
+            closeQuietly(reader);
+        }
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                if (!name.equals(INDEX) && !mEntries.containsKey(name)) {
+                    file.delete();
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    /**
+     * Writes the index once the changes of the next little while are in, unless that is already
+     * planned. Must hold the lock.
+     */
+    private void scheduleIndexWrite() {
+        if (!mIndexWriteScheduled) {
+            mIndexWriteScheduled = true;
+            mIndexWriter.schedule(mWriteIndex, INDEX_WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Replaces the index with the current entries, oldest first, through a temporary file so it
+     * is never seen half written. Only the snapshot is taken under the lock, so gets and puts go
+     * on while the index is on its way to disk.
+     */
+    private void writeIndex() {
+        final StringBuilder contents = new StringBuilder();
+        synchronized (this) {
+            mIndexWriteScheduled = false;
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                contents.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+            }
+        }
+        final File temp = new File(mDirectory, INDEX_TEMP);
+        FileOutputStream stream = null;
+        boolean written = false;
+        try {
+            stream = new FileOutputStream(temp);
+            final Writer writer = new OutputStreamWriter(stream, "UTF-8");
+            writer.write(contents.toString());
+            writer.flush();
+            stream.getFD().sync();
+            written = true;
+        } catch (IOException e) {
+            // Keep the previous index, the next write will catch up
+        } finally {
+            closeQuietly(stream);
+        }
+        if (!written || !temp.renameTo(new File(mDirectory, INDEX))) {
+            temp.delete();
+        }
+    }
+
+    private static String fileName(String image, int level, int col, int row) {
+        return hash(image) + "." + level + "." + col + "." + row + TILE_SUFFIX;
+    }
+
+    /**
+     * @return a hex digest of the key, safe to use in a file name
+     */
+    private static String hash(String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            final StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every platform has SHA-1 and UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
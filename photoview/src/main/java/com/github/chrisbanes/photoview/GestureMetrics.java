@@ -0,0 +1,152 @@
+package com.github.chrisbanes.photoview;
+
+/**
+ * Counters collected by {@link PhotoViewAttacher} over a single gesture or animation, reported
+ * through {@link OnGestureMetricsListener}. Instances are owned and reused by the attacher so
+ * collecting metrics does not allocate.
+ */
+public final class GestureMetrics {
+
+    public static final int GESTURE_DRAG = 0;
+    public static final int GESTURE_PINCH = 1;
+    public static final int GESTURE_FLING = 2;
+    public static final int GESTURE_ANIMATED_ZOOM = 3;
+
+    // A frame interval longer than this many frames counts as over budget
+    private static final float OVER_BUDGET_FRAMES = 1.5f;
+
+    private boolean mRecording;
+    private int mGestureType;
+    private long mStartTimeNanos;
+    private long mEndTimeNanos;
+    int mTouchEvents;
+    int mMatrixUpdates;
+    int mBoundsCorrections;
+    int mInvalidations;
+    private int mFrames;
+    private int mFramesOverBudget;
+    private long mTotalFrameIntervalNanos;
+    private long mMaxFrameIntervalNanos;
+    private long mLastFrameTimeNanos;
+
+    GestureMetrics() {
+    }
+
+    void begin(int gestureType, long startTimeNanos) {
+        mRecording = true;
+        mGestureType = gestureType;
+        mStartTimeNanos = startTimeNanos;
+        mEndTimeNanos = startTimeNanos;
+        mTouchEvents = 0;
+        mMatrixUpdates = 0;
+        mBoundsCorrections = 0;
+        mInvalidations = 0;
+        mFrames = 0;
+        mFramesOverBudget = 0;
+        mTotalFrameIntervalNanos = 0;
+        mMaxFrameIntervalNanos = 0;
+        mLastFrameTimeNanos = -1;
+    }
+
+    void setGestureType(int gestureType) {
+        mGestureType = gestureType;
+    }
+
+    void recordFrame(long frameTimeNanos, long frameIntervalNanos) {
+        mFrames++;
+        if (mLastFrameTimeNanos >= 0) {
+            final long interval = frameTimeNanos - mLastFrameTimeNanos;
+            mTotalFrameIntervalNanos += interval;
+            mMaxFrameIntervalNanos = Math.max(mMaxFrameIntervalNanos, interval);
+            if (interval > frameIntervalNanos * OVER_BUDGET_FRAMES) {
+                mFramesOverBudget++;
+            }
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+    }
+
+    void end(long endTimeNanos) {
+        mRecording = false;
+        mEndTimeNanos = endTimeNanos;
+    }
+
+    boolean isRecording() {
+        return mRecording;
+    }
+
+    /**
+     * @return one of {@link #GESTURE_DRAG}, {@link #GESTURE_PINCH}, {@link #GESTURE_FLING} or
+     * {@link #GESTURE_ANIMATED_ZOOM}
+     */
+    public int getGestureType() {
+        return mGestureType;
+    }
+
+    public long getDurationNanos() {
+        return mEndTimeNanos - mStartTimeNanos;
+    }
+
+    /**
+     * @return number of touch events handled during the gesture
+     */
+    public int getTouchEvents() {
+        return mTouchEvents;
+    }
+
+    /**
+     * @return number of times the matrix was pushed to the ImageView
+     */
+    public int getMatrixUpdates() {
+        return mMatrixUpdates;
+    }
+
+    /**
+     * @return number of times the bounds check had to move the image back within the view
+     */
+    public int getBoundsCorrections() {
+        return mBoundsCorrections;
+    }
+
+    /**
+     * @return number of matrix updates that changed what is drawn, and so invalidated the view
+     */
+    public int getInvalidations() {
+        return mInvalidations;
+    }
+
+    /**
+     * @return number of animation frames the gesture ran for
+     */
+    public int getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * @return number of frames that arrived more than one and a half frame intervals after
+     * the previous one
+     */
+    public int getFramesOverBudget() {
+        return mFramesOverBudget;
+    }
+
+    public long getMaxFrameIntervalNanos() {
+        return mMaxFrameIntervalNanos;
+    }
+
+    public long getAverageFrameIntervalNanos() {
+        return mFrames > 1 ? mTotalFrameIntervalNanos / (mFrames - 1) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "GestureMetrics{type=" + mGestureType
+            + ", durationNanos=" + getDurationNanos()
+            + ", touchEvents=" + mTouchEvents
+            + ", matrixUpdates=" + mMatrixUpdates
+            + ", boundsCorrections=" + mBoundsCorrections
+            + ", invalidations=" + mInvalidations
+            + ", frames=" + mFrames
+            + ", framesOverBudget=" + mFramesOverBudget
+            + ", maxFrameIntervalNanos=" + mMaxFrameIntervalNanos + "}";
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+
+import java.util.ArrayList;
+
+/**
+ * Draws a bitmap through a pyramid of copies, each half the size of the one before. While the
+ * image is zoomed out, the smallest level that still has a pixel for every screen pixel is
+ * drawn, so the GPU uploads and samples a fraction of the full bitmap. From a draw scale of
+ * one half up, the full bitmap is drawn. Either way, only the part of it that is on screen.
+ * <p>
+ * The levels are built in the background once the drawable is created. Until then, the full
+ * bitmap is drawn. The drawable keeps the intrinsic size of the BitmapDrawable it replaces, so
+ * the bitmap's density is honoured as before.
+ */
+class MipmapDrawable extends Drawable {
+
+    // Levels stop once their shorter side would drop below this
+    private static final int MIN_LEVEL_SIZE = 256;
+
+    private final Bitmap mBitmap;
+    private final PhotoViewAttacher mAttacher;
+    // Intrinsic size, which differs from the bitmap's when its density is not the screen's
+    private final int mWidth, mHeight;
+    // Bitmap pixels per intrinsic pixel
+    private final float mDensityScale;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF mDstRect = new RectF();
+    private final RectF mVisibleRect = new RectF();
+    private final Rect mSrcRect = new Rect();
+
+    // Level 0 is the bitmap itself, level n is downscaled by 2^n
+    private Bitmap[] mLevels;
+    private DecodeScheduler.Job<Bitmap[]> mBuildJob;
+    private boolean mRecycled;
+
+    MipmapDrawable(BitmapDrawable drawable, PhotoViewAttacher attacher) {
+        final Bitmap bitmap = drawable.getBitmap();
+        mBitmap = bitmap;
+        mAttacher = attacher;
+        mWidth = drawable.getIntrinsicWidth() > 0 ? drawable.getIntrinsicWidth() : bitmap.getWidth();
+        mHeight = drawable.getIntrinsicHeight() > 0 ? drawable.getIntrinsicHeight() : bitmap.getHeight();
+        mDensityScale = (float) bitmap.getWidth() / mWidth;
+        mLevels = new Bitmap[]{bitmap};
+        buildLevels();
+    }
+
+    /**
+     * @return the full resolution bitmap
+     */
+    Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        final Bitmap level = mLevels[getLevel(mAttacher.getDrawTransform().getScale())];
+        if (level.isRecycled() || !mAttacher.getVisibleRect(mVisibleRect)) {
+            return;
+        }
+        // Only the part of the level that is on screen, with a pixel of margin for filtering
+        final float scaleX = (float) level.getWidth() / mWidth;
+        final float scaleY = (float) level.getHeight() / mHeight;
+        mSrcRect.set(
+            Math.max(0, (int) Math.floor(mVisibleRect.left * scaleX) - 1),
+            Math.max(0, (int) Math.floor(mVisibleRect.top * scaleY) - 1),
+            Math.min(level.getWidth(), (int) Math.ceil(mVisibleRect.right * scaleX) + 1),
+            Math.min(level.getHeight(), (int) Math.ceil(mVisibleRect.bottom * scaleY) + 1));
+        mDstRect.set(mSrcRect.left / scaleX, mSrcRect.top / scaleY,
+            mSrcRect.right / scaleX, mSrcRect.bottom / scaleY);
+        canvas.drawBitmap(level, mSrcRect, mDstRect, mPaint);
+    }
+
+    /**
+     * Drops the downscaled levels. The full bitmap belongs to whoever set it and is left alone.
+     */
+    void recycle() {
+        if (mRecycled) {
+            return;
+        }
+        mRecycled = true;
+        if (mBuildJob != null) {
+            mBuildJob.cancel();
+            mBuildJob = null;
+        }
+        recycleLevels(mLevels);
+        mLevels = new Bitmap[]{mBitmap};
+    }
+
+    /**
+     * @return the coarsest level that still has at least one pixel per screen pixel at the
+     * given scale
+     */
+    private int getLevel(float scale) {
+        int level = 0;
+        if (scale <= 0f) {
+            return level;
+        }
+        while (level + 1 < mLevels.length && (1 << (level + 1)) <= mDensityScale / scale) {
+            level++;
+        }
+        return level;
+    }
+
+    private void buildLevels() {
+        if (Math.min(mBitmap.getWidth(), mBitmap.getHeight()) / 2 < MIN_LEVEL_SIZE) {
+            // Small enough already
+            return;
+        }
+        mBuildJob = new DecodeScheduler.Job<Bitmap[]>() {
+            @Override
+            Bitmap[] decode() {
+                final ArrayList<Bitmap> levels = new ArrayList<>();
+                levels.add(mBitmap);
+                Bitmap previous = mBitmap;
+                int width = mBitmap.getWidth() / 2, height = mBitmap.getHeight() / 2;
+                try {
+                    while (Math.min(width, height) >= MIN_LEVEL_SIZE && !isCancelled()) {
+                        // Halving each time keeps the filtering cheap and free of aliasing
+                        previous = Bitmap.createScaledBitmap(previous, width, height, true);
+                        levels.add(previous);
+                        width /= 2;
+                        height /= 2;
+                    }
+                } catch (OutOfMemoryError e) {
+                    // The levels are only an optimisation, make do with what we have
+                }
+                return levels.toArray(new Bitmap[levels.size()]);
+            }
+
+            @Override
+            void onDecoded(Bitmap[] levels) {
+                mBuildJob = null;
+                if (levels != null) {
+                    mLevels = levels;
+                }
+            }
+
+            @Override
+            void onCancelled(Bitmap[] levels) {
+                if (levels != null) {
+                    recycleLevels(levels);
+                }
+            }
+        };
+        // Behind anything that is needed to put pixels on screen
+        DecodeScheduler.getInstance().submit(mBuildJob, DecodeScheduler.PRIORITY_PREFETCH);
+    }
+
+    private void recycleLevels(Bitmap[] levels) {
+        for (int i = 1; i < levels.length; i++) {
+            levels[i].recycle();
+        }
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return mBitmap.hasAlpha() ? PixelFormat.TRANSLUCENT : PixelFormat.OPAQUE;
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.chrisbanes.photoview;
+
+/**
+ * Interface definition for a callback to be invoked when a gesture or animation on the photo
+ * has finished, with counters describing how much work it caused.
+ */
+public interface OnGestureMetricsListener {
+
+    /**
+     * Callback for when a drag, pinch, fling or animated transition has ended.
+     *
+     * @param metrics The counters for the gesture. The instance is reused, so copy anything
+     *                you need to keep before returning.
+     */
+    void onGestureMetrics(GestureMetrics metrics);
+}
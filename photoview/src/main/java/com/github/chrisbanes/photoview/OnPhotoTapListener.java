@@ -11,6 +11,9 @@ public interface OnPhotoTapListener {
     /**
      * A callback to receive where the user taps on a photo. You will only receive a callback if
      * the user taps on the actual photo, tapping on 'whitespace' will be ignored.
+     * <p>
+     * The position is relative to the Drawable itself, whatever rotation or EXIF orientation
+     * it is displayed with.
      *
      * @param view ImageView the user tapped.
      * @param x    where the user tapped from the of the Drawable, as percentage of the
@@ -15,15 +15,29 @@
  */
 package com.github.chrisbanes.photoview;
 
+import android.content.ContentResolver;
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.DrawFilter;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PaintFlagsDrawFilter;
 import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.util.AttributeSet;
+import android.util.LruCache;
 import android.view.GestureDetector;
 
 import androidx.appcompat.widget.AppCompatImageView;
+import androidx.core.widget.ImageViewCompat;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * A zoomable ImageView. See {@link PhotoViewAttacher} for most of the details on how the zooming
@@ -32,8 +46,27 @@ import androidx.appcompat.widget.AppCompatImageView;
 @SuppressWarnings("unused")
 public class PhotoView extends AppCompatImageView {
 
+    private static final int PROBED_SIZE_CACHE_SIZE = 64;
+    private static final float DEFAULT_FAST_DRAWING_MIN_MOTION = 4f;
+    private static final int DEFAULT_FAST_DRAWING_MIN_PIXELS = 1024 * 1024;
+
+    // Clears bitmap filtering for everything drawn through the canvas
+    private static final DrawFilter fastDrawFilter = new PaintFlagsDrawFilter(Paint.FILTER_BITMAP_FLAG, 0);
+
+    // Sizes of the images behind recently set uris, as {width, height}
+    private static final LruCache<Uri, int[]> probedSizes = new LruCache<>(PROBED_SIZE_CACHE_SIZE);
+
     private PhotoViewAttacher attacher;
     private ScaleType pendingScaleType;
+    private DecodeScheduler.Job<?> pendingDecode;
+    private boolean mipmapsEnabled;
+    private boolean fastDrawingEnabled;
+    private float fastDrawingMinMotion = DEFAULT_FAST_DRAWING_MIN_MOTION;
+    private int fastDrawingMinPixels = DEFAULT_FAST_DRAWING_MIN_PIXELS;
+    private int lastDrawnMatrixVersion;
+
+    // These are set so we don't keep allocating them on the heap
+    private final RectF visibleRect = new RectF();
 
     public PhotoView(Context context) {
         this(context, null);
@@ -81,6 +114,69 @@ public class PhotoView extends AppCompatImageView {
         return attacher.getImageMatrix();
     }
 
+    @Override
+    protected void onDraw(Canvas canvas) {
+        final Drawable drawable = getDrawable();
+        final boolean fast = shouldDrawFast(drawable);
+        DrawFilter previousFilter = null;
+        if (fast) {
+            previousFilter = canvas.getDrawFilter();
+            canvas.setDrawFilter(fastDrawFilter);
+        }
+        if (!(drawable instanceof BitmapDrawable) || !drawVisibleRegion(canvas, (BitmapDrawable) drawable)) {
+            super.onDraw(canvas);
+        }
+        if (fast) {
+            canvas.setDrawFilter(previousFilter);
+            // If nothing moves until the next frame, it is drawn at full quality
+            postInvalidateOnAnimation();
+        }
+    }
+
+    /**
+     * Draw images without bitmap filtering while a gesture, fling or zoom animation moves them
+     * quickly, which saves a good part of the frame on slow GPUs and software rendering. The
+     * image is redrawn at full quality as soon as it comes to rest. Off by default, as the image
+     * looks coarser while it moves.
+     */
+    public void setFastDrawingEnabled(boolean enabled) {
+        fastDrawingEnabled = enabled;
+        invalidate();
+    }
+
+    public boolean isFastDrawingEnabled() {
+        return fastDrawingEnabled;
+    }
+
+    /**
+     * Tunes when {@link #setFastDrawingEnabled(boolean) fast drawing} kicks in.
+     *
+     * @param minMotion how far the image has to move from one frame to the next, in view pixels.
+     *                  Slow, precise pans stay filtered below this
+     * @param minPixels the smallest image, in pixels, to draw fast. Smaller images are cheap to
+     *                  filter anyway
+     */
+    public void setFastDrawingThresholds(float minMotion, int minPixels) {
+        if (minMotion < 0 || minPixels < 0) {
+            throw new IllegalArgumentException("Fast drawing thresholds must not be negative");
+        }
+        fastDrawingMinMotion = minMotion;
+        fastDrawingMinPixels = minPixels;
+    }
+
+    private boolean shouldDrawFast(Drawable drawable) {
+        if (attacher == null || drawable == null) {
+            return false;
+        }
+        // A gesture that holds still draws at full quality, only frames that move are cheap
+        final int version = attacher.getMatrixVersion();
+        final boolean moved = version != lastDrawnMatrixVersion;
+        lastDrawnMatrixVersion = version;
+        return fastDrawingEnabled && moved && attacher.isMoving()
+            && attacher.getLastMotion() >= fastDrawingMinMotion
+            && (long) drawable.getIntrinsicWidth() * drawable.getIntrinsicHeight() >= fastDrawingMinPixels;
+    }
+
     @Override
     public void setOnLongClickListener(OnLongClickListener l) {
         attacher.setOnLongClickListener(l);
@@ -100,18 +196,156 @@ public class PhotoView extends AppCompatImageView {
         }
     }
 
+    /**
+     * Display a very large image by decoding only the parts of it that are visible, at a
+     * resolution matching the current zoom. The whole image stays available at a reduced
+     * resolution while tiles load.
+     *
+     * @param decoder decoder for the image. The view takes ownership and recycles it once
+     *                another image is set
+     */
+    public void setTiledImage(BitmapRegionDecoder decoder) {
+        setTiledImage(decoder, null);
+    }
+
+    /**
+     * Like {@link #setTiledImage(BitmapRegionDecoder)}, also keeping decoded tiles in a disk
+     * cache, so opening the same image again reads them back instead of decoding.
+     *
+     * @param cacheKey identifies the image, e.g. its uri or file path. Must stay the same across
+     *                 app launches and change if the content does. Null disables the disk cache
+     */
+    public void setTiledImage(BitmapRegionDecoder decoder, String cacheKey) {
+        setTileSource(new RegionDecoderTileSource(decoder), cacheKey);
+    }
+
+    /**
+     * Display a very large image from any tile pyramid, such as a {@link DeepZoomTileSource}.
+     * Tiles are read as the visible part of the image and the zoom level change, with every
+     * gesture working as for a regular drawable.
+     *
+     * @param source the tiles of the image. The view takes ownership and closes it once another
+     *               image is set
+     */
+    public void setTileSource(TileSource source) {
+        setTileSource(source, null);
+    }
+
+    /**
+     * Like {@link #setTileSource(TileSource)}, also keeping read tiles in a disk cache.
+     *
+     * @param cacheKey identifies the image, e.g. its uri or file path. Must stay the same across
+     *                 app launches and change if the content does. Null disables the disk cache
+     */
+    public void setTileSource(TileSource source, String cacheKey) {
+        setImageDrawable(new TiledDrawable(source, attacher, this, cacheKey));
+    }
+
+    /**
+     * Sets how much disk space the tiles cached through a cache key may take, across all
+     * PhotoViews in the process. 64 MB by default. Lowering it deletes the least recently used
+     * tiles in the background.
+     *
+     * @param maxBytes the cap, in bytes
+     */
+    public static void setDiskTileCacheSize(long maxBytes) {
+        DiskTileCache.setMaxSize(maxBytes);
+    }
+
+    /**
+     * Draw bitmaps through a pyramid of downscaled copies, built in the background, so a zoomed
+     * out image does not sample the full bitmap on every frame. Applies to bitmaps set afterwards
+     * through {@link #setImageBitmap(Bitmap)}, {@link #setImageURIAsync(Uri)} or as a
+     * {@link BitmapDrawable}. Off by default, as the copies take up to a third more memory.
+     * <p>
+     * While enabled, {@link #getDrawable()} no longer returns a BitmapDrawable for these bitmaps.
+     * Use {@link #getImageBitmap()} to get the bitmap back.
+     */
+    public void setMipmapsEnabled(boolean enabled) {
+        mipmapsEnabled = enabled;
+    }
+
+    public boolean isMipmapsEnabled() {
+        return mipmapsEnabled;
+    }
+
+    /**
+     * @return the bitmap shown, whether or not it is drawn through mipmaps, or null if the image
+     * is not a single bitmap
+     */
+    public Bitmap getImageBitmap() {
+        final Drawable drawable = getDrawable();
+        if (drawable instanceof MipmapDrawable) {
+            return ((MipmapDrawable) drawable).getBitmap();
+        }
+        if (drawable instanceof BitmapDrawable) {
+            return ((BitmapDrawable) drawable).getBitmap();
+        }
+        return null;
+    }
+
     @Override
     public void setImageDrawable(Drawable drawable) {
+        cancelPendingDecode();
+        drawable = wrapDrawable(drawable);
+        final Drawable previous = getDrawable();
         super.setImageDrawable(drawable);
+        releaseDrawable(previous, drawable);
         // setImageBitmap calls through to this method
-        if (attacher != null) {
+        if (attacher == null) {
+            return;
+        }
+        if (drawable == null) {
+            // Any size set for the next image was for another one
+            attacher.setSourceSize(0, 0);
+        } else {
             attacher.update();
         }
     }
 
+    /**
+     * Lays out for an image of the given size before its pixels are available. See
+     * {@link PhotoViewAttacher#setSourceSize(int, int)}
+     */
+    public void setSourceSize(int width, int height) {
+        attacher.setSourceSize(width, height);
+    }
+
+    /**
+     * Replaces the image with the same content at another resolution, typically the full image
+     * after a quick, subsampled preview. Unlike {@link #setImageDrawable(Drawable)}, the current
+     * zoom, rotation and position are kept, so the swap is seamless.
+     *
+     * @param drawable the new drawable, showing the same content as the current one
+     */
+    public void replaceImageDrawable(Drawable drawable) {
+        final Drawable previous = getDrawable();
+        if (previous == null || drawable == null) {
+            setImageDrawable(drawable);
+            return;
+        }
+        cancelPendingDecode();
+        drawable = wrapDrawable(drawable);
+        final int previousWidth = previous.getIntrinsicWidth();
+        final int previousHeight = previous.getIntrinsicHeight();
+        super.setImageDrawable(drawable);
+        releaseDrawable(previous, drawable);
+        attacher.updatePreservingTransform(previousWidth, previousHeight);
+    }
+
+    /**
+     * Bitmap version of {@link #replaceImageDrawable(Drawable)}
+     */
+    public void replaceImageBitmap(Bitmap bitmap) {
+        replaceImageDrawable(new BitmapDrawable(getResources(), bitmap));
+    }
+
     @Override
     public void setImageResource(int resId) {
+        cancelPendingDecode();
+        final Drawable previous = getDrawable();
         super.setImageResource(resId);
+        releaseDrawable(previous, getDrawable());
         if (attacher != null) {
             attacher.update();
         }
@@ -119,12 +353,180 @@ public class PhotoView extends AppCompatImageView {
 
     @Override
     public void setImageURI(Uri uri) {
+        cancelPendingDecode();
+        final Drawable previous = getDrawable();
         super.setImageURI(uri);
+        releaseDrawable(previous, getDrawable());
         if (attacher != null) {
             attacher.update();
         }
     }
 
+    /**
+     * Like {@link #setImageURI(Uri)}, but decodes the image on a background thread, shared with
+     * every other PhotoView, rather than on the UI thread. The previous image is cleared right
+     * away, so {@link #getDrawable()} returns null until the new one is decoded. The size of the
+     * new image is probed first, or taken from a cache of recently probed uris, so the view is
+     * laid out for it, and zoom or pan can be applied, before its pixels arrive. If the decode
+     * fails, the uri is handed to {@link #setImageURI(Uri)}, which logs what went wrong.
+     */
+    public void setImageURIAsync(final Uri uri) {
+        // Clears the pending decode as well
+        setImageDrawable(null);
+        if (uri == null) {
+            return;
+        }
+        final ContentResolver resolver = getContext().getContentResolver();
+        final int[] size = probedSizes.get(uri);
+        if (size != null) {
+            attacher.setSourceSize(size[0], size[1]);
+            decodeUri(resolver, uri);
+            return;
+        }
+        final DecodeScheduler.Job<int[]> probe = new DecodeScheduler.Job<int[]>() {
+            @Override
+            int[] decode() {
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                decodeStream(resolver, uri, options);
+                if (options.outWidth <= 0 || options.outHeight <= 0) {
+                    return null;
+                }
+                return new int[]{options.outWidth, options.outHeight};
+            }
+
+            @Override
+            void onDecoded(int[] size) {
+                if (size != null) {
+                    probedSizes.put(uri, size);
+                    attacher.setSourceSize(size[0], size[1]);
+                }
+                decodeUri(resolver, uri);
+            }
+        };
+        pendingDecode = probe;
+        DecodeScheduler.getInstance().submit(probe, DecodeScheduler.PRIORITY_VISIBLE);
+    }
+
+    private void decodeUri(final ContentResolver resolver, final Uri uri) {
+        final DecodeScheduler.Job<Bitmap> decode = new DecodeScheduler.Job<Bitmap>() {
+            @Override
+            Bitmap decode() {
+                return decodeStream(resolver, uri, null);
+            }
+
+            @Override
+            void onDecoded(Bitmap bitmap) {
+                pendingDecode = null;
+                if (bitmap != null) {
+                    setImageDrawable(new BitmapDrawable(getResources(), bitmap));
+                } else {
+                    // Let ImageView have a go, it knows more ways to resolve a uri and logs
+                    // what went wrong
+                    setImageURI(uri);
+                }
+            }
+
+            @Override
+            void onCancelled(Bitmap bitmap) {
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+            }
+        };
+        pendingDecode = decode;
+        DecodeScheduler.getInstance().submit(decode, DecodeScheduler.PRIORITY_VISIBLE);
+    }
+
+    private static Bitmap decodeStream(ContentResolver resolver, Uri uri, BitmapFactory.Options options) {
+        InputStream stream = null;
+        try {
+            stream = resolver.openInputStream(uri);
+            return BitmapFactory.decodeStream(stream, null, options);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(stream);
+        }
+    }
+
+    /**
+     * Draws only the part of the bitmap that is on screen, clipping the canvas to it rather than
+     * having the whole of it rasterized on every frame. Mirrors what ImageView draws for a drawable
+     * in MATRIX scale type. The drawable still draws itself, so its tint, blend mode, gravity and
+     * mirroring apply, none of which can be read back from a BitmapDrawable.
+     *
+     * @return false if the drawable has to be drawn the regular way
+     */
+    private boolean drawVisibleRegion(Canvas canvas, BitmapDrawable drawable) {
+        final Bitmap bitmap = drawable.getBitmap();
+        if (attacher == null || bitmap == null || bitmap.isRecycled() || drawable.getBounds().isEmpty()) {
+            return false;
+        }
+        if (ImageViewCompat.getImageTintList(this) != null) {
+            // Before Lollipop the tint is applied by a wrapper, not by the drawable itself
+            return false;
+        }
+        if (!attacher.getVisibleRect(visibleRect)) {
+            // Nothing of it is on screen
+            return true;
+        }
+        final int saveCount = canvas.save();
+        if (getCropToPadding()) {
+            final int scrollX = getScrollX();
+            final int scrollY = getScrollY();
+            canvas.clipRect(scrollX + getPaddingLeft(), scrollY + getPaddingTop(),
+                scrollX + getRight() - getLeft() - getPaddingRight(),
+                scrollY + getBottom() - getTop() - getPaddingBottom());
+        }
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        canvas.concat(getImageMatrix());
+        canvas.clipRect(visibleRect);
+        drawable.draw(canvas);
+        canvas.restoreToCount(saveCount);
+        return true;
+    }
+
+    private Drawable wrapDrawable(Drawable drawable) {
+        if (mipmapsEnabled && attacher != null && drawable instanceof BitmapDrawable) {
+            if (((BitmapDrawable) drawable).getBitmap() != null) {
+                return new MipmapDrawable((BitmapDrawable) drawable, attacher);
+            }
+        }
+        return drawable;
+    }
+
+    /**
+     * Frees what the library allocated for a drawable that is no longer shown
+     */
+    private static void releaseDrawable(Drawable previous, Drawable current) {
+        if (previous == current) {
+            return;
+        }
+        if (previous instanceof TiledDrawable) {
+            ((TiledDrawable) previous).recycle();
+        } else if (previous instanceof MipmapDrawable) {
+            ((MipmapDrawable) previous).recycle();
+        }
+    }
+
+    private void cancelPendingDecode() {
+        if (pendingDecode != null) {
+            pendingDecode.cancel();
+            pendingDecode = null;
+        }
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+        }
+    }
+
     @Override
     protected boolean setFrame(int l, int t, int r, int b) {
         boolean changed = super.setFrame(l, t, r, b);
@@ -142,6 +544,66 @@ public class PhotoView extends AppCompatImageView {
         attacher.setRotationBy(rotationDegree);
     }
 
+    public void setExifOrientation(int orientation) {
+        attacher.setExifOrientation(orientation);
+    }
+
+    public int getExifOrientation() {
+        return attacher.getExifOrientation();
+    }
+
+    /**
+     * Zoom, rotate and pan together with the other views in the group. See
+     * {@link PhotoViewAttacher#setTransformGroup(TransformGroup)}
+     */
+    public void setTransformGroup(TransformGroup group) {
+        attacher.setTransformGroup(group);
+    }
+
+    public TransformGroup getTransformGroup() {
+        return attacher.getTransformGroup();
+    }
+
+    /**
+     * Batch transform changes into a single display. See
+     * {@link PhotoViewAttacher#beginTransaction()}
+     */
+    public void beginTransaction() {
+        attacher.beginTransaction();
+    }
+
+    public void commitTransaction() {
+        attacher.commitTransaction();
+    }
+
+    public void translateBy(float dx, float dy) {
+        attacher.translateBy(dx, dy);
+    }
+
+    public void setFrameCoalescingEnabled(boolean coalesce) {
+        attacher.setFrameCoalescingEnabled(coalesce);
+    }
+
+    public boolean isFrameCoalescingEnabled() {
+        return attacher.isFrameCoalescingEnabled();
+    }
+
+    public void setRotationTo(float rotationDegree, boolean animate) {
+        attacher.setRotationTo(rotationDegree, animate);
+    }
+
+    public void setRotationBy(float rotationDegree, boolean animate) {
+        attacher.setRotationBy(rotationDegree, animate);
+    }
+
+    public void animateTo(Matrix target) {
+        attacher.animateTo(target);
+    }
+
+    public boolean isAnimating() {
+        return attacher.isAnimating();
+    }
+
     public boolean isZoomable() {
         return attacher.isZoomable();
     }
@@ -226,6 +688,10 @@ public class PhotoView extends AppCompatImageView {
         attacher.setOnViewDragListener(listener);
     }
 
+    public void setOnGestureMetricsListener(OnGestureMetricsListener listener) {
+        attacher.setOnGestureMetricsListener(listener);
+    }
+
     public void setScale(float scale) {
         attacher.setScale(scale);
     }
@@ -53,6 +53,18 @@ public class PhotoViewAttacher implements View.OnTouchListener,
     private static final int VERTICAL_EDGE_BOTTOM = 1;
     private static final int VERTICAL_EDGE_BOTH = 2;
     private static int SINGLE_TOUCH = 1;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    // Same values as the ExifInterface.ORIENTATION_* constants
+    private static final int EXIF_ORIENTATION_UNDEFINED = 0;
+    private static final int EXIF_ORIENTATION_NORMAL = 1;
+    private static final int EXIF_ORIENTATION_FLIP_HORIZONTAL = 2;
+    private static final int EXIF_ORIENTATION_ROTATE_180 = 3;
+    private static final int EXIF_ORIENTATION_FLIP_VERTICAL = 4;
+    private static final int EXIF_ORIENTATION_TRANSPOSE = 5;
+    private static final int EXIF_ORIENTATION_ROTATE_90 = 6;
+    private static final int EXIF_ORIENTATION_TRANSVERSE = 7;
+    private static final int EXIF_ORIENTATION_ROTATE_270 = 8;
 
     private Interpolator mInterpolator = new AccelerateDecelerateInterpolator();
     private int mZoomDuration = DEFAULT_ZOOM_DURATION;
@@ -69,12 +81,27 @@ public class PhotoViewAttacher implements View.OnTouchListener,
     private GestureDetector mGestureDetector;
     private CustomGestureDetector mScaleDragDetector;
 
-    // These are set so we don't keep allocating them on the heap
-    private final Matrix mBaseMatrix = new Matrix();
-    private final Matrix mDrawMatrix = new Matrix();
-    private final Matrix mSuppMatrix = new Matrix();
+    // These are set so we don't keep allocating them on the heap. The transforms are kept
+    // in Java and only copied to mImageMatrix when they are pushed to the ImageView
+    private final AffineTransform mBaseMatrix = new AffineTransform();
+    private final AffineTransform mDrawMatrix = new AffineTransform();
+    // Shared with the other members while in a TransformGroup, mOwnSuppMatrix otherwise
+    private final AffineTransform mOwnSuppMatrix = new AffineTransform();
+    private AffineTransform mSuppMatrix = mOwnSuppMatrix;
+    private TransformGroup mTransformGroup;
+    private final Matrix mImageMatrix = new Matrix();
     private final RectF mDisplayRect = new RectF();
-    private final float[] mMatrixValues = new float[9];
+
+    // Memoization of the derived state, keyed on the versions of the matrices it was built from
+    private final RectF mCachedDisplayRect = new RectF();
+    private int mDrawBaseVersion = -1, mDrawSuppVersion = -1;
+    private int mDisplayRectVersion = -1, mDisplayRectWidth, mDisplayRectHeight;
+    private int mBoundsBaseVersion = -1, mBoundsSuppVersion = -1;
+    private int mSkippedRecomputes;
+    // Handed out by getMatrixVersion(). Only ever grows, even when the supp matrix is swapped
+    // for one with an unrelated version
+    private int mMatrixVersion;
+    private int mMatrixBaseVersion = -1, mMatrixSuppVersion = -1;
 
     // Listeners
     private OnMatrixChangedListener mMatrixChangeListener;
@@ -86,60 +113,96 @@ public class PhotoViewAttacher implements View.OnTouchListener,
     private OnScaleChangedListener mScaleChangeListener;
     private OnSingleFlingListener mSingleFlingListener;
     private OnViewDragListener mOnViewDragListener;
-
-    private FlingRunnable mCurrentFlingRunnable;
+    private OnGestureMetricsListener mMetricsListener;
+
+    // Metrics are charged to whichever record is active, which is null whenever they are off
+    private final GestureMetrics mTouchMetrics = new GestureMetrics();
+    private final GestureMetrics mFlingMetrics = new GestureMetrics();
+    private final GestureMetrics mTransformMetrics = new GestureMetrics();
+    private GestureMetrics mActiveMetrics;
+    private int mDisplayedVersion = -1;
+
+    private final AnimationDriver mAnimationDriver;
+    // A single instance of each, re-armed for every gesture so flinging and zooming do not allocate
+    private final FlingAnimation mFlingAnimation;
+    private final TransformAnimation mTransformAnimation = new TransformAnimation();
+    // Scratch state for building animation targets
+    private final AffineTransform mTargetMatrix = new AffineTransform();
+    private final AffineTransform mTempMatrix = new AffineTransform();
+    private final RectF mTempRect = new RectF();
     private int mHorizontalScrollEdge = HORIZONTAL_EDGE_BOTH;
     private int mVerticalScrollEdge = VERTICAL_EDGE_BOTH;
     private float mBaseRotation;
+    private int mExifOrientation = EXIF_ORIENTATION_NORMAL;
+    // Takes the pixels of the drawable to the image as it is meant to be seen
+    private final AffineTransform mOrientationMatrix = new AffineTransform();
+    private final float[] mTempPoint = new float[2];
+    // Takes the view back to the drawable, for working out what is on screen
+    private final AffineTransform mInverseDrawMatrix = new AffineTransform();
+    // Display rect as of the previous matrix update, for measuring how fast the image moves
+    private final RectF mPreviousDisplayRect = new RectF();
+    private boolean mHasPreviousDisplayRect;
+    private float mLastMotion;
 
     private boolean mZoomEnabled = true;
     private ScaleType mScaleType = ScaleType.FIT_CENTER;
 
-    private OnGestureListener onGestureListener = new OnGestureListener() {
+    // Size of the image about to be shown, laid out against until its drawable is set
+    private int mSourceWidth, mSourceHeight;
+
+    // Depth of nested transactions, and whether a display is owed once the outermost commits
+    private int mTransactionDepth;
+    private boolean mTransactionDirty;
+
+    // Touch deltas waiting for the next frame when coalescing is enabled
+    private boolean mCoalesceTouchEvents = false;
+    private final AffineTransform mPendingMatrix = new AffineTransform();
+    private float mPendingDragX, mPendingDragY;
+    private float mPendingScale = 1f, mPendingFocusX, mPendingFocusY;
+    private final AnimationDriver.Animation mApplyPendingAnimation = new AnimationDriver.Animation() {
+        @Override
+        public boolean onFrame(long frameTimeNanos, long deadlineNanos) {
+            final boolean recording = mTouchMetrics.isRecording();
+            if (recording) {
+                mTouchMetrics.recordFrame(frameTimeNanos, mAnimationDriver.getFrameIntervalNanos());
+                mActiveMetrics = mTouchMetrics;
+            }
+            applyPendingTransform();
+            if (recording) {
+                mActiveMetrics = null;
+            }
+            return false;
+        }
+    };
+
+    final OnGestureListener onGestureListener = new OnGestureListener() {
         @Override
         public void onDrag(float dx, float dy) {
             if (mScaleDragDetector.isScaling()) {
                 return; // Do not drag if we are already scaling
             }
+            if (mCoalesceTouchEvents) {
+                mPendingMatrix.postTranslate(dx, dy);
+                mPendingDragX += dx;
+                mPendingDragY += dy;
+                schedulePendingTransform();
+                return;
+            }
             if (mOnViewDragListener != null) {
                 mOnViewDragListener.onDrag(dx, dy);
             }
             mSuppMatrix.postTranslate(dx, dy);
             checkAndDisplayMatrix();
-
-            /*
-             * Here we decide whether to let the ImageView's parent to start taking
-             * over the touch event.
-             *
-             * First we check whether this function is enabled. We never want the
-             * parent to take over if we're scaling. We then check the edge we're
-             * on, and the direction of the scroll (i.e. if we're pulling against
-             * the edge, aka 'overscrolling', let the parent take over).
-             */
-            ViewParent parent = mImageView.getParent();
-            if (mAllowParentInterceptOnEdge && !mScaleDragDetector.isScaling() && !mBlockParentIntercept) {
-                if (mHorizontalScrollEdge == HORIZONTAL_EDGE_BOTH
-                        || (mHorizontalScrollEdge == HORIZONTAL_EDGE_LEFT && dx >= 1f)
-                        || (mHorizontalScrollEdge == HORIZONTAL_EDGE_RIGHT && dx <= -1f)
-                        || (mVerticalScrollEdge == VERTICAL_EDGE_TOP && dy >= 1f)
-                        || (mVerticalScrollEdge == VERTICAL_EDGE_BOTTOM && dy <= -1f)) {
-                    if (parent != null) {
-                        parent.requestDisallowInterceptTouchEvent(false);
-                    }
-                }
-            } else {
-                if (parent != null) {
-                    parent.requestDisallowInterceptTouchEvent(true);
-                }
-            }
+            updateParentIntercept(dx, dy);
         }
 
         @Override
         public void onFling(float startX, float startY, float velocityX, float velocityY) {
-            mCurrentFlingRunnable = new FlingRunnable(mImageView.getContext());
-            mCurrentFlingRunnable.fling(getImageViewWidth(mImageView),
+            if (mTransformAnimation.isRunning()) {
+                return; // Snapping back to the scale limits wins over a fling
+            }
+            mFlingAnimation.fling(getImageViewWidth(mImageView),
                 getImageViewHeight(mImageView), (int) velocityX, (int) velocityY);
-            mImageView.post(mCurrentFlingRunnable);
         }
 
         @Override
@@ -149,19 +212,25 @@ public class PhotoViewAttacher implements View.OnTouchListener,
 
         @Override
         public void onScale(float scaleFactor, float focusX, float focusY, float dx, float dy) {
-            if (getScale() < mMaxScale || scaleFactor < 1f) {
-                if (mScaleChangeListener != null) {
-                    mScaleChangeListener.onScaleChange(scaleFactor, focusX, focusY);
+            if (mCoalesceTouchEvents) {
+                if (getScale() * mPendingScale < mMaxScale || scaleFactor < 1f) {
+                    mPendingMatrix.postScale(scaleFactor, scaleFactor, focusX, focusY);
+                    mPendingMatrix.postTranslate(dx, dy);
+                    mPendingScale *= scaleFactor;
+                    mPendingFocusX = focusX;
+                    mPendingFocusY = focusY;
+                    schedulePendingTransform();
                 }
-                mSuppMatrix.postScale(scaleFactor, scaleFactor, focusX, focusY);
-                mSuppMatrix.postTranslate(dx, dy);
-                checkAndDisplayMatrix();
+                return;
             }
+            applyScale(scaleFactor, focusX, focusY, dx, dy);
         }
     };
 
     public PhotoViewAttacher(ImageView imageView) {
         mImageView = imageView;
+        mAnimationDriver = new AnimationDriver(imageView);
+        mFlingAnimation = new FlingAnimation(imageView.getContext());
         imageView.setOnTouchListener(this);
         imageView.addOnLayoutChangeListener(this);
         if (imageView.isInEditMode()) {
@@ -208,12 +277,19 @@ public class PhotoViewAttacher implements View.OnTouchListener,
                     mViewTapListener.onViewTap(mImageView, x, y);
                 }
                 if (displayRect != null) {
+                    // Map the tap back onto the drawable, so rotation and EXIF orientation
+                    // do not change what the fractions are relative to
+                    final int width = getContentWidth(), height = getContentHeight();
+                    mTempPoint[0] = x;
+                    mTempPoint[1] = y;
+                    if (getDrawMatrix().invert(mTempMatrix)) {
+                        mTempMatrix.mapPoints(mTempPoint);
+                    }
                     // Check to see if the user tapped on the photo
-                    if (displayRect.contains(x, y)) {
-                        float xResult = (x - displayRect.left)
-                            / displayRect.width();
-                        float yResult = (y - displayRect.top)
-                            / displayRect.height();
+                    if (mTempPoint[0] >= 0 && mTempPoint[0] < width
+                        && mTempPoint[1] >= 0 && mTempPoint[1] < height) {
+                        float xResult = mTempPoint[0] / width;
+                        float yResult = mTempPoint[1] / height;
                         if (mPhotoTapListener != null) {
                             mPhotoTapListener.onPhotoTap(mImageView, xResult, yResult);
                         }
@@ -254,6 +330,42 @@ public class PhotoViewAttacher implements View.OnTouchListener,
         });
     }
 
+    /**
+     * Collect drag and pinch deltas from touch events and apply them once per display frame,
+     * rather than once per event. On devices with a touch sample rate above the display refresh
+     * rate this runs the bounds check, matrix update and listeners once per frame. Listeners
+     * then receive the accumulated delta of the frame.
+     *
+     * @param coalesce true to apply touch deltas once per frame
+     */
+    public void setFrameCoalescingEnabled(boolean coalesce) {
+        if (!coalesce) {
+            flushPendingTransform();
+        }
+        mCoalesceTouchEvents = coalesce;
+    }
+
+    public boolean isFrameCoalescingEnabled() {
+        return mCoalesceTouchEvents;
+    }
+
+    /**
+     * Register a callback that receives work counters for every drag, pinch, fling and animated
+     * transition once it ends. Collection is off, and costs a null check, while no listener is
+     * set, and does not allocate while one is.
+     *
+     * @param listener the listener, or null to stop collecting
+     */
+    public void setOnGestureMetricsListener(OnGestureMetricsListener listener) {
+        mMetricsListener = listener;
+        if (listener == null) {
+            mActiveMetrics = null;
+            mTouchMetrics.end(0);
+            mFlingMetrics.end(0);
+            mTransformMetrics.end(0);
+        }
+    }
+
     public void setOnDoubleTapListener(GestureDetector.OnDoubleTapListener newOnDoubleTapListener) {
         this.mGestureDetector.setOnDoubleTapListener(newOnDoubleTapListener);
     }
@@ -280,7 +392,7 @@ public class PhotoViewAttacher implements View.OnTouchListener,
         if (finalMatrix == null) {
             throw new IllegalArgumentException("Matrix cannot be null");
         }
-        if (mImageView.getDrawable() == null) {
+        if (!hasContent()) {
             return false;
         }
         mSuppMatrix.set(finalMatrix);
@@ -289,12 +401,76 @@ public class PhotoViewAttacher implements View.OnTouchListener,
     }
 
     public void setBaseRotation(final float degrees) {
+        beginTransaction();
         mBaseRotation = degrees % 360;
         update();
         setRotationBy(mBaseRotation);
+        commitTransaction();
+    }
+
+    /**
+     * Starts batching transform changes. Until the matching {@link #commitTransaction()}, calls
+     * such as {@link #setScale(float)}, {@link #setRotationTo(float)}, {@link #translateBy(float,
+     * float)} or {@link #setDisplayMatrix(Matrix)} only stage their change. The commit then checks
+     * the bounds once, pushes the matrix to the view once and notifies the
+     * {@link OnMatrixChangedListener} once, so intermediate states are never seen. Useful to
+     * restore a saved viewport, or when binding many views at once.
+     * <p>
+     * Transactions nest, only the outermost commit displays. Animated changes still run on
+     * their own. Commit in a finally block, so a failing call does not leave the view frozen.
+     */
+    public void beginTransaction() {
+        mTransactionDepth++;
+    }
+
+    /**
+     * Ends a transaction started with {@link #beginTransaction()}, displaying what it staged.
+     */
+    public void commitTransaction() {
+        if (mTransactionDepth == 0) {
+            throw new IllegalStateException("No transaction to commit");
+        }
+        mTransactionDepth--;
+        if (mTransactionDepth == 0 && mTransactionDirty) {
+            mTransactionDirty = false;
+            checkAndDisplayMatrix();
+        }
+    }
+
+    /**
+     * Move the image by the given distance, in view pixels.
+     */
+    public void translateBy(float dx, float dy) {
+        mSuppMatrix.postTranslate(dx, dy);
         checkAndDisplayMatrix();
     }
 
+    /**
+     * Displays the drawable according to an EXIF orientation, as part of the base matrix. This
+     * spares decoding a rotated or mirrored copy of the bitmap. Taps reported to
+     * {@link OnPhotoTapListener} stay relative to the drawable as it is, not as it is displayed.
+     * Applies to every drawable set afterwards, until changed.
+     *
+     * @param orientation one of the {@code ExifInterface.ORIENTATION_*} values. Undefined is
+     *                    treated as normal
+     */
+    public void setExifOrientation(int orientation) {
+        if (orientation < EXIF_ORIENTATION_UNDEFINED || orientation > EXIF_ORIENTATION_ROTATE_270) {
+            throw new IllegalArgumentException("Unknown EXIF orientation " + orientation);
+        }
+        if (orientation == EXIF_ORIENTATION_UNDEFINED) {
+            orientation = EXIF_ORIENTATION_NORMAL;
+        }
+        if (orientation != mExifOrientation) {
+            mExifOrientation = orientation;
+            update();
+        }
+    }
+
+    public int getExifOrientation() {
+        return mExifOrientation;
+    }
+
     public void setRotationTo(float degrees) {
         mSuppMatrix.setRotate(degrees % 360);
         checkAndDisplayMatrix();
@@ -305,6 +481,88 @@ public class PhotoViewAttacher implements View.OnTouchListener,
         checkAndDisplayMatrix();
     }
 
+    /**
+     * Same as {@link #setRotationTo(float)}, optionally animating there. The animation turns
+     * about the center of the view and ends on the same transform as the immediate change.
+     *
+     * @param degrees rotation to end up at
+     * @param animate whether to animate the rotation
+     */
+    public void setRotationTo(float degrees, boolean animate) {
+        if (animate) {
+            mTargetMatrix.setRotate(degrees % 360);
+            animateRotation(mTargetMatrix);
+        } else {
+            setRotationTo(degrees);
+        }
+    }
+
+    /**
+     * Same as {@link #setRotationBy(float)}, optionally animating there. The animation turns
+     * about the center of the view and ends on the same transform as the immediate change.
+     *
+     * @param degrees rotation to add to the current one
+     * @param animate whether to animate the rotation
+     */
+    public void setRotationBy(float degrees, boolean animate) {
+        if (animate) {
+            mTargetMatrix.set(mSuppMatrix);
+            mTargetMatrix.postRotate(degrees % 360);
+            animateRotation(mTargetMatrix);
+        } else {
+            setRotationBy(degrees);
+        }
+    }
+
+    /**
+     * Animate the supp matrix, the transform applied on top of the base fit of the drawable, to
+     * the given target. Scale, rotation and translation are interpolated together, using the
+     * zoom duration and interpolator, with a single bounds check per frame. Any running fling or
+     * animation is stopped first, and touching the view stops the animation where it is.
+     *
+     * @param target the supp matrix to end up at, in the same space as
+     *               {@link #getSuppMatrix(Matrix)}. Perspective values are ignored
+     * @throws IllegalArgumentException if the target skews, mirrors or scales unevenly, which
+     *                                  cannot be interpolated as a scale and a rotation
+     */
+    public void animateTo(Matrix target) {
+        if (target == null) {
+            throw new IllegalArgumentException("Matrix cannot be null");
+        }
+        mTargetMatrix.set(target);
+        if (!mTargetMatrix.isSimilarity()) {
+            throw new IllegalArgumentException("Matrix must only scale uniformly, rotate and translate");
+        }
+        if (!hasContent()) {
+            return;
+        }
+        startTransformAnimation(mTargetMatrix, mImageView.getWidth() / 2f,
+            mImageView.getHeight() / 2f);
+    }
+
+    public boolean isAnimating() {
+        return mTransformAnimation.isRunning();
+    }
+
+    /**
+     * @return true while a gesture, fling or animation is moving the image
+     */
+    boolean isMoving() {
+        // There is no detector in edit mode
+        final boolean gesture = mScaleDragDetector != null
+            && (mScaleDragDetector.isScaling() || mScaleDragDetector.isDragging());
+        return gesture || mAnimationDriver.isRunning(mFlingAnimation)
+            || mTransformAnimation.isRunning() || mAnimationDriver.isRunning(mApplyPendingAnimation);
+    }
+
+    /**
+     * @return how far the image moved in the last matrix update: the largest distance any edge
+     * of the display rect travelled, in view pixels
+     */
+    float getLastMotion() {
+        return mLastMotion;
+    }
+
     public float getMinimumScale() {
         return mMinScale;
     }
@@ -318,8 +576,31 @@ public class PhotoViewAttacher implements View.OnTouchListener,
     }
 
     public float getScale() {
-        return (float) Math.sqrt((float) Math.pow(getValue(mSuppMatrix, Matrix.MSCALE_X), 2) + (float) Math.pow
-            (getValue(mSuppMatrix, Matrix.MSKEW_Y), 2));
+        return mSuppMatrix.getScale();
+    }
+
+    /**
+     * @return the rotation applied on top of the base matrix, in degrees
+     */
+    public float getRotation() {
+        return mSuppMatrix.getRotation();
+    }
+
+    /**
+     * Get a counter that changes every time the display matrix may have changed. Callers can
+     * compare it with a previously seen value to skip work when nothing moved.
+     *
+     * @return the current matrix version
+     */
+    public int getMatrixVersion() {
+        final int baseVersion = mBaseMatrix.getVersion();
+        final int suppVersion = mSuppMatrix.getVersion();
+        if (baseVersion != mMatrixBaseVersion || suppVersion != mMatrixSuppVersion) {
+            mMatrixBaseVersion = baseVersion;
+            mMatrixSuppVersion = suppVersion;
+            mMatrixVersion++;
+        }
+        return mMatrixVersion;
     }
 
     public ScaleType getScaleType() {
@@ -331,7 +612,7 @@ public class PhotoViewAttacher implements View.OnTouchListener,
         oldRight, int oldBottom) {
         // Update our base matrix, as the bounds have changed
         if (left != oldLeft || top != oldTop || right != oldRight || bottom != oldBottom) {
-            updateBaseMatrix(mImageView.getDrawable());
+            updateBaseMatrix();
         }
     }
 
@@ -339,6 +620,15 @@ public class PhotoViewAttacher implements View.OnTouchListener,
     public boolean onTouch(View v, MotionEvent ev) {
         boolean handled = false;
         if (mZoomEnabled && Util.hasDrawable((ImageView) v)) {
+            if (mMetricsListener != null) {
+                if (ev.getAction() == MotionEvent.ACTION_DOWN) {
+                    mTouchMetrics.begin(GestureMetrics.GESTURE_DRAG, System.nanoTime());
+                }
+                if (mTouchMetrics.isRecording()) {
+                    mTouchMetrics.mTouchEvents++;
+                    mActiveMetrics = mTouchMetrics;
+                }
+            }
             switch (ev.getAction()) {
                 case MotionEvent.ACTION_DOWN:
                     ViewParent parent = v.getParent();
@@ -347,26 +637,31 @@ public class PhotoViewAttacher implements View.OnTouchListener,
                     if (parent != null) {
                         parent.requestDisallowInterceptTouchEvent(true);
                     }
-                    // If we're flinging, and the user presses down, cancel
-                    // fling
-                    cancelFling();
+                    // If we're flinging or animating, and the user presses down,
+                    // stop where we are
+                    if (mTransformGroup != null) {
+                        mTransformGroup.cancelAnimations();
+                    } else {
+                        cancelAnimations();
+                    }
+                    mSkippedRecomputes = 0;
                     break;
                 case MotionEvent.ACTION_CANCEL:
                 case MotionEvent.ACTION_UP:
+                    // Anything still waiting for a frame must land before we snap back or fling
+                    flushPendingTransform();
                     // If the user has zoomed less than min scale, zoom back
                     // to min scale
                     if (getScale() < mMinScale) {
                         RectF rect = getDisplayRect();
                         if (rect != null) {
-                            v.post(new AnimatedZoomRunnable(getScale(), mMinScale,
-                                rect.centerX(), rect.centerY()));
+                            animateScaleTo(mMinScale, rect.centerX(), rect.centerY());
                             handled = true;
                         }
                     } else if (getScale() > mMaxScale) {
                         RectF rect = getDisplayRect();
                         if (rect != null) {
-                            v.post(new AnimatedZoomRunnable(getScale(), mMaxScale,
-                                rect.centerX(), rect.centerY()));
+                            animateScaleTo(mMaxScale, rect.centerX(), rect.centerY());
                             handled = true;
                         }
                     }
@@ -380,11 +675,27 @@ public class PhotoViewAttacher implements View.OnTouchListener,
                 boolean didntScale = !wasScaling && !mScaleDragDetector.isScaling();
                 boolean didntDrag = !wasDragging && !mScaleDragDetector.isDragging();
                 mBlockParentIntercept = didntScale && didntDrag;
+                if (mActiveMetrics == mTouchMetrics && !didntScale) {
+                    mTouchMetrics.setGestureType(GestureMetrics.GESTURE_PINCH);
+                }
             }
             // Check to see if the user double tapped
             if (mGestureDetector != null && mGestureDetector.onTouchEvent(ev)) {
                 handled = true;
             }
+            if (mActiveMetrics == mTouchMetrics) {
+                mActiveMetrics = null;
+                final int action = ev.getAction();
+                if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+                    // Taps and long presses do not move anything, only report actual gestures
+                    if (mTouchMetrics.getGestureType() == GestureMetrics.GESTURE_PINCH
+                        || mTouchMetrics.getMatrixUpdates() > 0) {
+                        reportMetrics(mTouchMetrics);
+                    } else {
+                        mTouchMetrics.end(System.nanoTime());
+                    }
+                }
+            }
 
         }
         return handled;
@@ -462,8 +773,7 @@ public class PhotoViewAttacher implements View.OnTouchListener,
             throw new IllegalArgumentException("Scale must be within the range of minScale and maxScale");
         }
         if (animate) {
-            mImageView.post(new AnimatedZoomRunnable(getScale(), scale,
-                focalX, focalY));
+            animateScaleTo(scale, focalX, focalY);
         } else {
             mSuppMatrix.setScale(scale, scale, focalX, focalY);
             checkAndDisplayMatrix();
@@ -496,82 +806,311 @@ public class PhotoViewAttacher implements View.OnTouchListener,
     }
 
     public void update() {
+        if (mSourceWidth > 0 && mImageView.getDrawable() != null) {
+            // The pixels of an image we already laid out for have arrived
+            final int sourceWidth = mSourceWidth, sourceHeight = mSourceHeight;
+            mSourceWidth = mSourceHeight = 0;
+            updatePreservingTransform(sourceWidth, sourceHeight);
+            return;
+        }
         if (mZoomEnabled) {
             // Update the base matrix using the current drawable
-            updateBaseMatrix(mImageView.getDrawable());
+            updateBaseMatrix();
         } else {
             // Reset the Matrix...
             resetMatrix();
         }
     }
 
+    /**
+     * Lays out for an image of the given size that has not been decoded yet, typically known
+     * from a {@link android.graphics.BitmapFactory.Options#inJustDecodeBounds} probe. The base
+     * matrix, the zoom limits and any supp matrix set meanwhile apply right away, and carry
+     * over unchanged when the drawable is set, with no jump.
+     * <p>
+     * Only takes effect while the view has no drawable, and lasts until the next drawable is set.
+     *
+     * @param width  width of the image, in the pixels of the drawable that will show it. Pass 0
+     *               to forget a size set earlier
+     * @param height height of the image
+     */
+    public void setSourceSize(int width, int height) {
+        if (mImageView.getDrawable() != null) {
+            return;
+        }
+        if (width <= 0 || height <= 0) {
+            width = height = 0;
+        }
+        mSourceWidth = width;
+        mSourceHeight = height;
+        update();
+    }
+
+    /**
+     * Like {@link #update()}, for when the drawable was replaced by the same content at another
+     * resolution, e.g. the full image after a subsampled preview. Rather than resetting, the
+     * supp matrix is rebuilt so the new drawable covers exactly the region of the view the old
+     * one did, keeping the zoom, rotation and position. If the aspect ratios differ, the new
+     * drawable is not the same content after all, and it is laid out from scratch instead.
+     *
+     * @param previousWidth  intrinsic width of the drawable that was replaced
+     * @param previousHeight intrinsic height of the drawable that was replaced
+     */
+    public void updatePreservingTransform(int previousWidth, int previousHeight) {
+        final Drawable drawable = mImageView.getDrawable();
+        if (!mZoomEnabled || drawable == null || previousWidth <= 0 || previousHeight <= 0
+            || drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0) {
+            update();
+            return;
+        }
+        if (!Util.isSameAspectRatio(previousWidth, previousHeight,
+            drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight())) {
+            // Scaling it over the old one would stretch it
+            updateBaseMatrix();
+            return;
+        }
+        // Their targets are in terms of the old base matrix
+        cancelFling();
+        mTransformAnimation.cancel();
+        // The old draw matrix, taking a pixel of the new drawable to where the same content
+        // used to be: oldDraw * S(w0 / w1, h0 / h1)
+        mTargetMatrix.setScale((float) previousWidth / drawable.getIntrinsicWidth(),
+            (float) previousHeight / drawable.getIntrinsicHeight(), 0, 0);
+        mTempMatrix.setConcat(getDrawMatrix(), mTargetMatrix);
+        computeBaseMatrix(drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+        if (!mBaseMatrix.invert(mTargetMatrix)) {
+            resetMatrix();
+            return;
+        }
+        // newSupp * newBase = oldDraw * S
+        mSuppMatrix.setConcat(mTempMatrix, mTargetMatrix);
+        checkAndDisplayMatrix();
+    }
+
     /**
      * Get the display matrix
      *
      * @param matrix target matrix to copy to
      */
     public void getDisplayMatrix(Matrix matrix) {
-        matrix.set(getDrawMatrix());
+        getDrawMatrix().get(matrix);
     }
 
     /**
      * Get the current support matrix
      */
     public void getSuppMatrix(Matrix matrix) {
-        matrix.set(mSuppMatrix);
+        mSuppMatrix.get(matrix);
     }
 
-    private Matrix getDrawMatrix() {
-        mDrawMatrix.set(mBaseMatrix);
-        mDrawMatrix.postConcat(mSuppMatrix);
+    private AffineTransform getDrawMatrix() {
+        final int baseVersion = mBaseMatrix.getVersion();
+        final int suppVersion = mSuppMatrix.getVersion();
+        if (baseVersion == mDrawBaseVersion && suppVersion == mDrawSuppVersion) {
+            mSkippedRecomputes++;
+            return mDrawMatrix;
+        }
+        mDrawMatrix.setConcat(mSuppMatrix, mBaseMatrix);
+        mDrawBaseVersion = baseVersion;
+        mDrawSuppVersion = suppVersion;
         return mDrawMatrix;
     }
 
+    /**
+     * Debugging aid for the memoized matrix state. Counts how many times the draw matrix,
+     * display rect or bounds check were served from cache instead of being recomputed since
+     * the last {@link MotionEvent#ACTION_DOWN}.
+     *
+     * @return the number of recomputes saved during the current, or last, gesture
+     */
+    public int getSkippedRecomputeCount() {
+        return mSkippedRecomputes;
+    }
+
+    /**
+     * Debugging aid for the shared frame scheduler. Every PhotoView in the process animates off
+     * the same frame callback.
+     *
+     * @return how many zoom, fling and touch animations, across all PhotoViews, ran in the last
+     * frame
+     */
+    public static int getActiveAnimationCount() {
+        return AnimationDriver.getActiveAnimationCount();
+    }
+
+    /**
+     * @return how many running animations, across all PhotoViews, were held back in the last
+     * frame because their view was detached or not shown
+     */
+    public static int getSkippedAnimationCount() {
+        return AnimationDriver.getSkippedAnimationCount();
+    }
+
     public Matrix getImageMatrix() {
-        return mDrawMatrix;
+        return mImageMatrix;
     }
 
-    public void setZoomTransitionDuration(int milliseconds) {
-        this.mZoomDuration = milliseconds;
+    /**
+     * @return the current draw matrix, base concatenated with supp. Must not be modified
+     */
+    AffineTransform getDrawTransform() {
+        return getDrawMatrix();
+    }
+
+    /**
+     * Writes the part of the drawable that is on screen into rect, in drawable coordinates, so
+     * drawing can skip the rest of it. Unless the view crops to its padding, the drawable is
+     * also drawn over the padding, so that counts as on screen.
+     *
+     * @return false, leaving rect undefined, if no part of the drawable is on screen
+     */
+    boolean getVisibleRect(RectF rect) {
+        final Drawable drawable = mImageView.getDrawable();
+        if (drawable == null || !getDrawMatrix().invert(mInverseDrawMatrix)) {
+            return false;
+        }
+        // In the coordinates the draw matrix maps to, which start inside the padding
+        final int scrollX = mImageView.getScrollX(), scrollY = mImageView.getScrollY();
+        if (mImageView.getCropToPadding()) {
+            rect.set(scrollX, scrollY, scrollX + getImageViewWidth(mImageView),
+                scrollY + getImageViewHeight(mImageView));
+        } else {
+            final int left = scrollX - mImageView.getPaddingLeft();
+            final int top = scrollY - mImageView.getPaddingTop();
+            rect.set(left, top, left + mImageView.getWidth(), top + mImageView.getHeight());
+        }
+        mInverseDrawMatrix.mapRect(rect);
+        return rect.intersect(0, 0, drawable.getIntrinsicWidth(), drawable.getIntrinsicHeight());
+    }
+
+    /**
+     * Writes the draw matrix the running fling will come to rest at into dst. The scroller knows
+     * its final position as soon as the fling starts, so this is exact from the first frame.
+     *
+     * @return false, leaving dst untouched, if no fling is running
+     */
+    boolean getFlingEndTransform(AffineTransform dst) {
+        return mFlingAnimation.getEndTransform(dst);
     }
 
     /**
-     * Helper method that 'unpacks' a Matrix and returns the required value
+     * Makes this view zoom, rotate and pan together with the other members of the group. The
+     * view takes on the group's current transform, or hands its own to the group if it is the
+     * first member. Setting a new image on any member resets the whole group.
      *
-     * @param matrix     Matrix to unpack
-     * @param whichValue Which value from Matrix.M* to return
-     * @return returned value
+     * @param group the group to join, or null to leave the current one, keeping the transform
+     *              as it is
      */
-    private float getValue(Matrix matrix, int whichValue) {
-        matrix.getValues(mMatrixValues);
-        return mMatrixValues[whichValue];
+    public void setTransformGroup(TransformGroup group) {
+        if (group == mTransformGroup) {
+            return;
+        }
+        // Coalesced touch deltas belong to the matrix they were collected against
+        flushPendingTransform();
+        cancelAnimations();
+        if (mTransformGroup != null) {
+            mTransformGroup.remove(this);
+            mOwnSuppMatrix.set(mSuppMatrix);
+            mSuppMatrix = mOwnSuppMatrix;
+        }
+        mTransformGroup = group;
+        if (group != null) {
+            if (group.size() == 0) {
+                group.mSuppMatrix.set(mSuppMatrix);
+            }
+            group.add(this);
+            mSuppMatrix = group.mSuppMatrix;
+        }
+        // Versions are only comparable within one matrix, so forget what was derived before
+        mDrawSuppVersion = -1;
+        mBoundsSuppVersion = -1;
+        mMatrixSuppVersion = -1;
+        if (group != null) {
+            checkAndDisplayMatrix();
+        }
+    }
+
+    public TransformGroup getTransformGroup() {
+        return mTransformGroup;
+    }
+
+    /**
+     * Displays a change to the shared supp matrix that another member of the group made.
+     */
+    void onGroupTransformChanged() {
+        // The member that made the change already moved the matrix into bounds, but which
+        // edges this view touches is still ours to find out
+        final AffineTransform drawMatrix = getDrawMatrix();
+        final RectF rect = getDisplayRect(drawMatrix);
+        if (rect != null) {
+            constrainToBounds(rect, null, true);
+        }
+        mBoundsBaseVersion = mBaseMatrix.getVersion();
+        mBoundsSuppVersion = mSuppMatrix.getVersion();
+        setImageViewMatrix(drawMatrix);
+    }
+
+    void cancelAnimations() {
+        cancelFling();
+        mTransformAnimation.cancel();
+    }
+
+    public void setZoomTransitionDuration(int milliseconds) {
+        this.mZoomDuration = milliseconds;
     }
 
     /**
      * Resets the Matrix back to FIT_CENTER, and then displays its contents
      */
     private void resetMatrix() {
+        beginTransaction();
         mSuppMatrix.reset();
         setRotationBy(mBaseRotation);
-        setImageViewMatrix(getDrawMatrix());
-        checkMatrixBounds();
+        commitTransaction();
     }
 
-    private void setImageViewMatrix(Matrix matrix) {
-        mImageView.setImageMatrix(matrix);
-        // Call MatrixChangedListener if needed
-        if (mMatrixChangeListener != null) {
-            RectF displayRect = getDisplayRect(matrix);
-            if (displayRect != null) {
+    private void setImageViewMatrix(AffineTransform matrix) {
+        // The only place the transform crosses over to a platform Matrix
+        matrix.get(mImageMatrix);
+        mImageView.setImageMatrix(mImageMatrix);
+        final GestureMetrics metrics = mActiveMetrics;
+        if (metrics != null) {
+            metrics.mMatrixUpdates++;
+            if (matrix.getVersion() != mDisplayedVersion) {
+                metrics.mInvalidations++;
+            }
+        }
+        mDisplayedVersion = matrix.getVersion();
+        RectF displayRect = getDisplayRect(matrix);
+        if (displayRect != null) {
+            if (mHasPreviousDisplayRect) {
+                mLastMotion = Math.max(
+                    Math.max(Math.abs(displayRect.left - mPreviousDisplayRect.left),
+                        Math.abs(displayRect.top - mPreviousDisplayRect.top)),
+                    Math.max(Math.abs(displayRect.right - mPreviousDisplayRect.right),
+                        Math.abs(displayRect.bottom - mPreviousDisplayRect.bottom)));
+            }
+            mPreviousDisplayRect.set(displayRect);
+            mHasPreviousDisplayRect = true;
+            // Call MatrixChangedListener if needed
+            if (mMatrixChangeListener != null) {
                 mMatrixChangeListener.onMatrixChanged(displayRect);
             }
         }
+        if (mTransformGroup != null) {
+            mTransformGroup.dispatchTransformChanged(this);
+        }
     }
 
     /**
      * Helper method that simply checks the Matrix, and then displays the result
      */
-    private void checkAndDisplayMatrix() {
+    void checkAndDisplayMatrix() {
+        if (mTransactionDepth > 0) {
+            // Left to the commit
+            mTransactionDirty = true;
+            return;
+        }
         if (checkMatrixBounds()) {
             setImageViewMatrix(getDrawMatrix());
         }
@@ -583,30 +1122,72 @@ public class PhotoViewAttacher implements View.OnTouchListener,
      * @param matrix - Matrix to map Drawable against
      * @return RectF - Displayed Rectangle
      */
-    private RectF getDisplayRect(Matrix matrix) {
-        Drawable d = mImageView.getDrawable();
-        if (d != null) {
-            mDisplayRect.set(0, 0, d.getIntrinsicWidth(),
-                d.getIntrinsicHeight());
-            matrix.mapRect(mDisplayRect);
+    private RectF getDisplayRect(AffineTransform matrix) {
+        if (hasContent()) {
+            final int width = getContentWidth();
+            final int height = getContentHeight();
+            if (matrix != mDrawMatrix) {
+                mDisplayRect.set(0, 0, width, height);
+                matrix.mapRect(mDisplayRect);
+                return mDisplayRect;
+            }
+            if (mDisplayRectVersion != matrix.getVersion()
+                || mDisplayRectWidth != width || mDisplayRectHeight != height) {
+                mCachedDisplayRect.set(0, 0, width, height);
+                matrix.mapRect(mCachedDisplayRect);
+                mDisplayRectVersion = matrix.getVersion();
+                mDisplayRectWidth = width;
+                mDisplayRectHeight = height;
+            } else {
+                mSkippedRecomputes++;
+            }
+            // Hand out a copy, callers are free to modify the returned rect
+            mDisplayRect.set(mCachedDisplayRect);
             return mDisplayRect;
         }
         return null;
     }
 
+    /**
+     * @return true if there is a drawable, or the size of one that is on its way
+     */
+    private boolean hasContent() {
+        return mImageView.getDrawable() != null || mSourceWidth > 0;
+    }
+
+    private int getContentWidth() {
+        final Drawable d = mImageView.getDrawable();
+        return d != null ? d.getIntrinsicWidth() : mSourceWidth;
+    }
+
+    private int getContentHeight() {
+        final Drawable d = mImageView.getDrawable();
+        return d != null ? d.getIntrinsicHeight() : mSourceHeight;
+    }
+
     /**
      * Calculate Matrix for FIT_CENTER
-     *
-     * @param drawable - Drawable being displayed
      */
-    private void updateBaseMatrix(Drawable drawable) {
-        if (drawable == null) {
+    private void updateBaseMatrix() {
+        if (!hasContent()) {
             return;
         }
+        computeBaseMatrix(getContentWidth(), getContentHeight());
+        resetMatrix();
+    }
+
+    /**
+     * Sets the base matrix for the content size, the view size and the scale type, leaving the
+     * supp matrix alone
+     */
+    private void computeBaseMatrix(int contentWidth, int contentHeight) {
         final float viewWidth = getImageViewWidth(mImageView);
         final float viewHeight = getImageViewHeight(mImageView);
-        final int drawableWidth = drawable.getIntrinsicWidth();
-        final int drawableHeight = drawable.getIntrinsicHeight();
+        // Fit the image as it is meant to be seen, then map the drawable's pixels into it
+        computeOrientationMatrix(contentWidth, contentHeight);
+        final boolean transposed = mExifOrientation >= EXIF_ORIENTATION_TRANSPOSE;
+        final int drawableWidth = transposed ? contentHeight : contentWidth;
+        final int drawableHeight = transposed ? contentWidth : contentHeight;
         mBaseMatrix.reset();
         final float widthScale = viewWidth / drawableWidth;
         final float heightScale = viewHeight / drawableHeight;
@@ -627,29 +1208,75 @@ public class PhotoViewAttacher implements View.OnTouchListener,
                 (viewHeight - drawableHeight * scale) / 2F);
 
         } else {
-            RectF mTempSrc = new RectF(0, 0, drawableWidth, drawableHeight);
-            RectF mTempDst = new RectF(0, 0, viewWidth, viewHeight);
+            float srcWidth = drawableWidth, srcHeight = drawableHeight;
             if ((int) mBaseRotation % 180 != 0) {
-                mTempSrc = new RectF(0, 0, drawableHeight, drawableWidth);
+                srcWidth = drawableHeight;
+                srcHeight = drawableWidth;
             }
             switch (mScaleType) {
                 case FIT_CENTER:
-                    mBaseMatrix.setRectToRect(mTempSrc, mTempDst, ScaleToFit.CENTER);
+                    mBaseMatrix.setRectToRect(0, 0, srcWidth, srcHeight,
+                        0, 0, viewWidth, viewHeight, ScaleToFit.CENTER);
                     break;
                 case FIT_START:
-                    mBaseMatrix.setRectToRect(mTempSrc, mTempDst, ScaleToFit.START);
+                    mBaseMatrix.setRectToRect(0, 0, srcWidth, srcHeight,
+                        0, 0, viewWidth, viewHeight, ScaleToFit.START);
                     break;
                 case FIT_END:
-                    mBaseMatrix.setRectToRect(mTempSrc, mTempDst, ScaleToFit.END);
+                    mBaseMatrix.setRectToRect(0, 0, srcWidth, srcHeight,
+                        0, 0, viewWidth, viewHeight, ScaleToFit.END);
                     break;
                 case FIT_XY:
-                    mBaseMatrix.setRectToRect(mTempSrc, mTempDst, ScaleToFit.FILL);
+                    mBaseMatrix.setRectToRect(0, 0, srcWidth, srcHeight,
+                        0, 0, viewWidth, viewHeight, ScaleToFit.FILL);
                     break;
                 default:
                     break;
             }
         }
-        resetMatrix();
+        mBaseMatrix.setConcat(mBaseMatrix, mOrientationMatrix);
+    }
+
+    /**
+     * Sets mOrientationMatrix to take a drawable of the given size to the EXIF orientation, with
+     * the result's top left at the origin
+     */
+    private void computeOrientationMatrix(int width, int height) {
+        final AffineTransform m = mOrientationMatrix;
+        m.reset();
+        switch (mExifOrientation) {
+            case EXIF_ORIENTATION_FLIP_HORIZONTAL:
+                m.postScale(-1f, 1f);
+                m.postTranslate(width, 0);
+                break;
+            case EXIF_ORIENTATION_ROTATE_180:
+                m.postRotate(180f);
+                m.postTranslate(width, height);
+                break;
+            case EXIF_ORIENTATION_FLIP_VERTICAL:
+                m.postScale(1f, -1f);
+                m.postTranslate(0, height);
+                break;
+            case EXIF_ORIENTATION_TRANSPOSE:
+                m.postRotate(90f);
+                m.postScale(-1f, 1f);
+                break;
+            case EXIF_ORIENTATION_ROTATE_90:
+                m.postRotate(90f);
+                m.postTranslate(height, 0);
+                break;
+            case EXIF_ORIENTATION_TRANSVERSE:
+                m.postRotate(-90f);
+                m.postScale(-1f, 1f);
+                m.postTranslate(height, width);
+                break;
+            case EXIF_ORIENTATION_ROTATE_270:
+                m.postRotate(-90f);
+                m.postTranslate(0, width);
+                break;
+            default:
+                break;
+        }
     }
 
     private boolean checkMatrixBounds() {
@@ -657,6 +1284,33 @@ public class PhotoViewAttacher implements View.OnTouchListener,
         if (rect == null) {
             return false;
         }
+        // The base matrix is rebuilt whenever the view size or scale type changes, so matching
+        // versions mean the matrix is already within bounds and the scroll edges are current
+        if (mBoundsBaseVersion == mBaseMatrix.getVersion()
+            && mBoundsSuppVersion == mSuppMatrix.getVersion()) {
+            mSkippedRecomputes++;
+            return true;
+        }
+        // Finally actually translate the matrix
+        if (constrainToBounds(rect, mSuppMatrix, true) && mActiveMetrics != null) {
+            mActiveMetrics.mBoundsCorrections++;
+        }
+        mBoundsBaseVersion = mBaseMatrix.getVersion();
+        mBoundsSuppVersion = mSuppMatrix.getVersion();
+        return true;
+    }
+
+    /**
+     * Moves the given supp matrix so that the drawable, whose displayed rect is passed in, sits
+     * within the view as dictated by the scale type.
+     *
+     * @param rect        the display rect of the drawable under the given supp matrix
+     * @param supp        supp matrix to translate, or null to leave it be
+     * @param updateEdges whether to record which edges the drawable is touching
+     * @return true if the supp matrix had to be moved
+     */
+    private boolean constrainToBounds(RectF rect, AffineTransform supp, boolean updateEdges) {
+        final int verticalEdge, horizontalEdge;
         final float height = rect.height(), width = rect.width();
         float deltaX = 0, deltaY = 0;
         final int viewHeight = getImageViewHeight(mImageView);
@@ -672,15 +1326,15 @@ public class PhotoViewAttacher implements View.OnTouchListener,
                     deltaY = (viewHeight - height) / 2 - rect.top;
                     break;
             }
-            mVerticalScrollEdge = VERTICAL_EDGE_BOTH;
+            verticalEdge = VERTICAL_EDGE_BOTH;
         } else if (rect.top > 0) {
-            mVerticalScrollEdge = VERTICAL_EDGE_TOP;
+            verticalEdge = VERTICAL_EDGE_TOP;
             deltaY = -rect.top;
         } else if (rect.bottom < viewHeight) {
-            mVerticalScrollEdge = VERTICAL_EDGE_BOTTOM;
+            verticalEdge = VERTICAL_EDGE_BOTTOM;
             deltaY = viewHeight - rect.bottom;
         } else {
-            mVerticalScrollEdge = VERTICAL_EDGE_NONE;
+            verticalEdge = VERTICAL_EDGE_NONE;
         }
         final int viewWidth = getImageViewWidth(mImageView);
         if (width <= viewWidth) {
@@ -695,19 +1349,136 @@ public class PhotoViewAttacher implements View.OnTouchListener,
                     deltaX = (viewWidth - width) / 2 - rect.left;
                     break;
             }
-            mHorizontalScrollEdge = HORIZONTAL_EDGE_BOTH;
+            horizontalEdge = HORIZONTAL_EDGE_BOTH;
         } else if (rect.left > 0) {
-            mHorizontalScrollEdge = HORIZONTAL_EDGE_LEFT;
+            horizontalEdge = HORIZONTAL_EDGE_LEFT;
             deltaX = -rect.left;
         } else if (rect.right < viewWidth) {
             deltaX = viewWidth - rect.right;
-            mHorizontalScrollEdge = HORIZONTAL_EDGE_RIGHT;
+            horizontalEdge = HORIZONTAL_EDGE_RIGHT;
         } else {
-            mHorizontalScrollEdge = HORIZONTAL_EDGE_NONE;
+            horizontalEdge = HORIZONTAL_EDGE_NONE;
+        }
+        if (updateEdges) {
+            mVerticalScrollEdge = verticalEdge;
+            mHorizontalScrollEdge = horizontalEdge;
+        }
+        if (supp != null) {
+            supp.postTranslate(deltaX, deltaY);
+        }
+        return deltaX != 0 || deltaY != 0;
+    }
+
+    private void applyScale(float scaleFactor, float focusX, float focusY, float dx, float dy) {
+        if (getScale() < mMaxScale || scaleFactor < 1f) {
+            if (mScaleChangeListener != null) {
+                mScaleChangeListener.onScaleChange(scaleFactor, focusX, focusY);
+            }
+            mSuppMatrix.postScale(scaleFactor, scaleFactor, focusX, focusY);
+            mSuppMatrix.postTranslate(dx, dy);
+            checkAndDisplayMatrix();
+        }
+    }
+
+    /*
+     * Here we decide whether to let the ImageView's parent to start taking
+     * over the touch event.
+     *
+     * First we check whether this function is enabled. We never want the
+     * parent to take over if we're scaling. We then check the edge we're
+     * on, and the direction of the scroll (i.e. if we're pulling against
+     * the edge, aka 'overscrolling', let the parent take over).
+     */
+    private void updateParentIntercept(float dx, float dy) {
+        ViewParent parent = mImageView.getParent();
+        if (mAllowParentInterceptOnEdge && !mScaleDragDetector.isScaling() && !mBlockParentIntercept) {
+            if (mHorizontalScrollEdge == HORIZONTAL_EDGE_BOTH
+                    || (mHorizontalScrollEdge == HORIZONTAL_EDGE_LEFT && dx >= 1f)
+                    || (mHorizontalScrollEdge == HORIZONTAL_EDGE_RIGHT && dx <= -1f)
+                    || (mVerticalScrollEdge == VERTICAL_EDGE_TOP && dy >= 1f)
+                    || (mVerticalScrollEdge == VERTICAL_EDGE_BOTTOM && dy <= -1f)) {
+                if (parent != null) {
+                    parent.requestDisallowInterceptTouchEvent(false);
+                }
+            }
+        } else {
+            if (parent != null) {
+                parent.requestDisallowInterceptTouchEvent(true);
+            }
         }
-        // Finally actually translate the matrix
-        mSuppMatrix.postTranslate(deltaX, deltaY);
-        return true;
+    }
+
+    private void schedulePendingTransform() {
+        mAnimationDriver.start(mApplyPendingAnimation);
+    }
+
+    /**
+     * Applies the touch deltas waiting for the next frame right away, if there are any.
+     */
+    void flushPendingTransform() {
+        if (mAnimationDriver.isRunning(mApplyPendingAnimation)) {
+            mAnimationDriver.cancel(mApplyPendingAnimation);
+            applyPendingTransform();
+        }
+    }
+
+    /**
+     * Applies every drag and scale delta collected since the last frame with a single bounds
+     * check, matrix update and listener dispatch.
+     */
+    private void applyPendingTransform() {
+        final float dx = mPendingDragX, dy = mPendingDragY;
+        final boolean dragged = dx != 0f || dy != 0f;
+        if (mPendingScale != 1f && mScaleChangeListener != null) {
+            mScaleChangeListener.onScaleChange(mPendingScale, mPendingFocusX, mPendingFocusY);
+        }
+        if (dragged && mOnViewDragListener != null) {
+            mOnViewDragListener.onDrag(dx, dy);
+        }
+        mSuppMatrix.postConcat(mPendingMatrix);
+        mPendingMatrix.reset();
+        mPendingDragX = mPendingDragY = 0f;
+        mPendingScale = 1f;
+        checkAndDisplayMatrix();
+        if (dragged) {
+            updateParentIntercept(dx, dy);
+        }
+    }
+
+    private void reportMetrics(GestureMetrics metrics) {
+        if (metrics.isRecording()) {
+            metrics.end(System.nanoTime());
+            if (mMetricsListener != null) {
+                mMetricsListener.onGestureMetrics(metrics);
+            }
+        }
+    }
+
+    private void animateScaleTo(float scale, float focalX, float focalY) {
+        mTargetMatrix.set(mSuppMatrix);
+        final float deltaScale = scale / getScale();
+        mTargetMatrix.postScale(deltaScale, deltaScale, focalX, focalY);
+        startTransformAnimation(mTargetMatrix, focalX, focalY);
+    }
+
+    private void animateRotation(AffineTransform target) {
+        startTransformAnimation(target, mImageView.getWidth() / 2f, mImageView.getHeight() / 2f);
+    }
+
+    /**
+     * Clamps the target into bounds up front, so the last frame does not jump, and animates
+     * towards it.
+     */
+    private void startTransformAnimation(AffineTransform target, float focalX, float focalY) {
+        if (!hasContent()) {
+            return;
+        }
+        mTempMatrix.setConcat(target, mBaseMatrix);
+        mTempRect.set(0, 0, getContentWidth(), getContentHeight());
+        mTempMatrix.mapRect(mTempRect);
+        constrainToBounds(mTempRect, target, false);
+        cancelFling();
+        mTransformAnimation.start(target, focalX, focalY);
     }
 
     private int getImageViewWidth(ImageView imageView) {
@@ -719,58 +1490,135 @@ public class PhotoViewAttacher implements View.OnTouchListener,
     }
 
     private void cancelFling() {
-        if (mCurrentFlingRunnable != null) {
-            mCurrentFlingRunnable.cancelFling();
-            mCurrentFlingRunnable = null;
-        }
+        mFlingAnimation.cancelFling();
     }
 
-    private class AnimatedZoomRunnable implements Runnable {
-
-        private final float mFocalX, mFocalY;
-        private final long mStartTime;
-        private final float mZoomStart, mZoomEnd;
-
-        public AnimatedZoomRunnable(final float currentZoom, final float targetZoom,
-            final float focalX, final float focalY) {
+    /**
+     * Moves the supp matrix from where it is to a target, interpolating the decomposed scale and
+     * rotation about the point of the image under the focal point, while that point travels to
+     * where the target puts it. Each frame rebuilds the matrix from the two end points rather
+     * than accumulating deltas, so bounds corrections along the way do not drift.
+     */
+    private class TransformAnimation implements AnimationDriver.Animation {
+
+        private final AffineTransform mEnd = new AffineTransform();
+        private final AffineTransform mStartInverse = new AffineTransform();
+        private final float[] mPivot = new float[2];
+        private float mStartScale, mStartRotation;
+        private float mEndScale, mDeltaRotation;
+        private float mFocalX, mFocalY;
+        // The point under the focal point at the start, before the supp matrix, and where the
+        // target takes it
+        private float mPivotX, mPivotY;
+        private float mEndFocalX, mEndFocalY;
+        private long mStartTimeNanos;
+
+        /**
+         * Arms the animation and starts it on the next frame. Calling this while it is running
+         * restarts it from the current supp matrix.
+         */
+        public void start(AffineTransform target, float focalX, float focalY) {
+            mEnd.set(target);
+            mStartScale = mSuppMatrix.getScale();
+            mStartRotation = mSuppMatrix.getRotation();
+            mEndScale = target.getScale();
+            // Interpolating the translation on its own would swing the image off the focal
+            // point whenever the rotation changes, so pivot around the point under it instead
+            mPivot[0] = focalX;
+            mPivot[1] = focalY;
+            if (mSuppMatrix.invert(mStartInverse)) {
+                mStartInverse.mapPoints(mPivot);
+            }
+            mPivotX = mPivot[0];
+            mPivotY = mPivot[1];
+            target.mapPoints(mPivot);
+            mEndFocalX = mPivot[0];
+            mEndFocalY = mPivot[1];
+            // Take the short way round
+            float deltaRotation = (target.getRotation() - mStartRotation) % 360;
+            if (deltaRotation > 180) {
+                deltaRotation -= 360;
+            } else if (deltaRotation <= -180) {
+                deltaRotation += 360;
+            }
+            mDeltaRotation = deltaRotation;
             mFocalX = focalX;
             mFocalY = focalY;
-            mStartTime = System.currentTimeMillis();
-            mZoomStart = currentZoom;
-            mZoomEnd = targetZoom;
+            mStartTimeNanos = -1;
+            if (mMetricsListener != null) {
+                reportMetrics(mTransformMetrics);
+                mTransformMetrics.begin(GestureMetrics.GESTURE_ANIMATED_ZOOM, System.nanoTime());
+            }
+            mAnimationDriver.start(this);
         }
 
-        @Override
-        public void run() {
-            float t = interpolate();
-            float scale = mZoomStart + t * (mZoomEnd - mZoomStart);
-            float deltaScale = scale / getScale();
-            onGestureListener.onScale(deltaScale, mFocalX, mFocalY);
-            // We haven't hit our target scale yet, so post ourselves again
-            if (t < 1f) {
-                Compat.postOnAnimation(mImageView, this);
-            }
+        public void cancel() {
+            mAnimationDriver.cancel(this);
+            reportMetrics(mTransformMetrics);
         }
 
-        private float interpolate() {
-            float t = 1f * (System.currentTimeMillis() - mStartTime) / mZoomDuration;
-            t = Math.min(1f, t);
-            t = mInterpolator.getInterpolation(t);
-            return t;
+        public boolean isRunning() {
+            return mAnimationDriver.isRunning(this);
+        }
+
+        @Override
+        public boolean onFrame(long frameTimeNanos, long deadlineNanos) {
+            if (mStartTimeNanos < 0) {
+                // The animation starts on the vsync of its first frame, so that frame is
+                // already one interval into it by the time it is shown
+                mStartTimeNanos = frameTimeNanos;
+            }
+            float fraction = 1f * (deadlineNanos - mStartTimeNanos) / (mZoomDuration * NANOS_PER_MILLI);
+            fraction = Math.min(1f, fraction);
+            final boolean recording = mTransformMetrics.isRecording();
+            if (recording) {
+                mTransformMetrics.recordFrame(frameTimeNanos, mAnimationDriver.getFrameIntervalNanos());
+                mActiveMetrics = mTransformMetrics;
+            }
+            final float previousScale = getScale();
+            if (fraction >= 1f) {
+                mSuppMatrix.set(mEnd);
+            } else {
+                final float t = mInterpolator.getInterpolation(fraction);
+                final float scale = mStartScale + t * (mEndScale - mStartScale);
+                // The pivot travels from the focal point to where the target puts it, and the
+                // image is scaled and rotated about it
+                mSuppMatrix.reset();
+                mSuppMatrix.postTranslate(-mPivotX, -mPivotY);
+                mSuppMatrix.postScale(scale, scale);
+                mSuppMatrix.postRotate(mStartRotation + t * mDeltaRotation);
+                mSuppMatrix.postTranslate(mFocalX + t * (mEndFocalX - mFocalX),
+                    mFocalY + t * (mEndFocalY - mFocalY));
+            }
+            final float deltaScale = getScale() / previousScale;
+            if (deltaScale != 1f && mScaleChangeListener != null) {
+                mScaleChangeListener.onScaleChange(deltaScale, mFocalX, mFocalY);
+            }
+            checkAndDisplayMatrix();
+            if (recording) {
+                mActiveMetrics = null;
+                if (fraction >= 1f) {
+                    reportMetrics(mTransformMetrics);
+                }
+            }
+            // Keep going until we hit our target
+            return fraction < 1f;
         }
     }
 
-    private class FlingRunnable implements Runnable {
+    private class FlingAnimation implements AnimationDriver.Animation {
 
         private final OverScroller mScroller;
         private int mCurrentX, mCurrentY;
 
-        public FlingRunnable(Context context) {
+        public FlingAnimation(Context context) {
             mScroller = new OverScroller(context);
         }
 
         public void cancelFling() {
             mScroller.forceFinished(true);
+            mAnimationDriver.cancel(this);
+            reportMetrics(mFlingMetrics);
         }
 
         public void fling(int viewWidth, int viewHeight, int velocityX,
@@ -800,24 +1648,45 @@ public class PhotoViewAttacher implements View.OnTouchListener,
             if (startX != maxX || startY != maxY) {
                 mScroller.fling(startX, startY, velocityX, velocityY, minX,
                     maxX, minY, maxY, 0, 0);
+                if (mMetricsListener != null) {
+                    reportMetrics(mFlingMetrics);
+                    mFlingMetrics.begin(GestureMetrics.GESTURE_FLING, System.nanoTime());
+                }
+                mAnimationDriver.start(this);
+            }
+        }
+
+        boolean getEndTransform(AffineTransform dst) {
+            if (!mAnimationDriver.isRunning(this) || mScroller.isFinished()) {
+                return false;
             }
+            dst.set(getDrawMatrix());
+            dst.postTranslate(mCurrentX - mScroller.getFinalX(), mCurrentY - mScroller.getFinalY());
+            return true;
         }
 
         @Override
-        public void run() {
-            if (mScroller.isFinished()) {
-                return; // remaining post that should not be handled
-            }
-            if (mScroller.computeScrollOffset()) {
-                final int newX = mScroller.getCurrX();
-                final int newY = mScroller.getCurrY();
-                mSuppMatrix.postTranslate(mCurrentX - newX, mCurrentY - newY);
-                checkAndDisplayMatrix();
-                mCurrentX = newX;
-                mCurrentY = newY;
-                // Post On animation
-                Compat.postOnAnimation(mImageView, this);
+        public boolean onFrame(long frameTimeNanos, long deadlineNanos) {
+            // OverScroller reads the animation clock, which is locked to this frame's vsync
+            if (mScroller.isFinished() || !mScroller.computeScrollOffset()) {
+                reportMetrics(mFlingMetrics);
+                return false;
+            }
+            final boolean recording = mFlingMetrics.isRecording();
+            if (recording) {
+                mFlingMetrics.recordFrame(frameTimeNanos, mAnimationDriver.getFrameIntervalNanos());
+                mActiveMetrics = mFlingMetrics;
+            }
+            final int newX = mScroller.getCurrX();
+            final int newY = mScroller.getCurrY();
+            mSuppMatrix.postTranslate(mCurrentX - newX, mCurrentY - newY);
+            checkAndDisplayMatrix();
+            mCurrentX = newX;
+            mCurrentY = newY;
+            if (recording) {
+                mActiveMetrics = null;
             }
+            return true;
         }
     }
 }
@@ -0,0 +1,121 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+/**
+ * A {@link TileSource} decoding tiles out of a single image file with
+ * {@link BitmapRegionDecoder}. Every level is decoded from the full image with a power of two
+ * sample size, so any JPEG or PNG can be shown tiled without preparing it.
+ */
+public class RegionDecoderTileSource implements TileSource {
+
+    private static final int DEFAULT_TILE_SIZE = 512;
+
+    private final BitmapRegionDecoder mDecoder;
+    private final int mWidth, mHeight;
+    private final int mTileSize;
+    private final int mLevelCount;
+
+    /**
+     * @param decoder decoder for the image. The source takes ownership and recycles it when
+     *                closed
+     */
+    public RegionDecoderTileSource(BitmapRegionDecoder decoder) {
+        this(decoder, DEFAULT_TILE_SIZE);
+    }
+
+    public RegionDecoderTileSource(BitmapRegionDecoder decoder, int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive");
+        }
+        mDecoder = decoder;
+        mWidth = decoder.getWidth();
+        mHeight = decoder.getHeight();
+        mTileSize = tileSize;
+        mLevelCount = Util.getLevelCount(mWidth, mHeight, tileSize);
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getLevelCount() {
+        return mLevelCount;
+    }
+
+    @Override
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    @Override
+    public int getTileOverlap() {
+        return 0;
+    }
+
+    @Override
+    public Bitmap openTile(int level, int col, int row, Bitmap reusable) {
+        final int span = mTileSize << level;
+        final int left = col * span, top = row * span;
+        final Rect region = new Rect(left, top, Math.min(mWidth, left + span),
+            Math.min(mHeight, top + span));
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1 << level;
+        // Mutable, so the tile can be reused for later decodes once evicted
+        options.inMutable = true;
+        options.inBitmap = reusable;
+        // The decoder decodes one region at a time anyway. Holding its lock keeps close()
+        // from pulling it out from under us
+        synchronized (mDecoder) {
+            if (mDecoder.isRecycled()) {
+                return null;
+            }
+            try {
+                return mDecoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                if (reusable == null) {
+                    return null;
+                }
+            }
+            // The decoder could not write into the reused bitmap, try again with a fresh one
+            options.inBitmap = null;
+            try {
+                return mDecoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (mDecoder) {
+            mDecoder.recycle();
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A cache of decoded tiles with a hard budget in bytes, keyed by (source, level, column, row).
+ * Level is the log2 of the sample size a tile was decoded at, so tiles at level n cover
+ * tileSize &lt;&lt; n source pixels. Sources may each use their own tile size.
+ * <p>
+ * Eviction is LRU, weighted by where the tile is: among the least recently used entries, tiles
+ * of other sources, tiles far from the current viewport and tiles coarser than the current level
+ * go first. Evicted values are moved to a reuse pool, so new decodes can draw from it instead
+ * of allocating.
+ * <p>
+ * Free of Android types so it can be exercised on the JVM. Not thread safe, it is meant to be
+ * used from the UI thread only.
+ *
+ * @param <V> the type of the tile pixels
+ */
+abstract class TileCache<V> {
+
+    // How many of the least recently used entries are weighed against each other per eviction
+    private static final int EVICTION_WINDOW = 16;
+
+    private static class Key {
+        int source, level, col, row;
+
+        void set(int source, int level, int col, int row) {
+            this.source = source;
+            this.level = level;
+            this.col = col;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return source == other.source && level == other.level
+                && col == other.col && row == other.row;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = source;
+            result = 31 * result + level;
+            result = 31 * result + col;
+            result = 31 * result + row;
+            return result;
+        }
+    }
+
+    private static final class Entry<V> extends Key {
+        V value;
+        int size;
+        Entry<V> newer, older;
+    }
+
+    private final HashMap<Key, Entry<V>> mEntries = new HashMap<>();
+    // Reused for lookups so gets do not allocate
+    private final Key mProbe = new Key();
+    private Entry<V> mNewest, mOldest;
+    private int mMaxSize;
+    private int mSize;
+
+    private final ArrayList<V> mPool = new ArrayList<>();
+    private int mPoolSize;
+
+    private int mViewportSource = -1;
+    private int mViewportLevel;
+    private int mViewportTileSize;
+    private float mViewportLeft, mViewportTop, mViewportRight, mViewportBottom;
+
+    private int mHitCount, mMissCount, mEvictionCount, mReuseCount;
+
+    /**
+     * @param maxSize budget for the cached tiles, in the unit of {@link #sizeOf(Object)}. The
+     *                reuse pool may hold up to a quarter of this on top
+     */
+    TileCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return the size of the value, usually in bytes
+     */
+    protected abstract int sizeOf(V value);
+
+    /**
+     * @return true if a decode of the given size can write into the candidate
+     */
+    protected abstract boolean canReuse(V candidate, int width, int height);
+
+    /**
+     * Called for values dropped from the reuse pool, or that could not be pooled. The value is
+     * no longer referenced by the cache.
+     */
+    protected abstract void discard(V value);
+
+    V get(int source, int level, int col, int row) {
+        mProbe.set(source, level, col, row);
+        final Entry<V> entry = mEntries.get(mProbe);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        unlink(entry);
+        linkNewest(entry);
+        return entry.value;
+    }
+
+    boolean contains(int source, int level, int col, int row) {
+        mProbe.set(source, level, col, row);
+        return mEntries.containsKey(mProbe);
+    }
+
+    void put(int source, int level, int col, int row, V value) {
+        mProbe.set(source, level, col, row);
+        Entry<V> entry = mEntries.get(mProbe);
+        if (entry != null) {
+            mSize -= entry.size;
+            if (entry.value != value) {
+                offerReusable(entry.value);
+            }
+            unlink(entry);
+        } else {
+            entry = new Entry<>();
+            entry.set(source, level, col, row);
+            mEntries.put(entry, entry);
+        }
+        entry.value = value;
+        entry.size = sizeOf(value);
+        mSize += entry.size;
+        linkNewest(entry);
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Tells the cache which part of which source is on screen, in full resolution source pixels,
+     * and at what level it is being drawn. Used to weigh evictions.
+     *
+     * @param tileSize edge length of the source's tiles in decoded pixels
+     */
+    void setViewport(int source, int level, int tileSize, float left, float top, float right,
+        float bottom) {
+        mViewportSource = source;
+        mViewportLevel = level;
+        mViewportTileSize = tileSize;
+        mViewportLeft = left;
+        mViewportTop = top;
+        mViewportRight = right;
+        mViewportBottom = bottom;
+    }
+
+    /**
+     * Takes a value out of the reuse pool that a decode of the given size can write into.
+     *
+     * @return the value, or null if nothing fits
+     */
+    V obtainReusable(int width, int height) {
+        for (int i = mPool.size() - 1; i >= 0; i--) {
+            final V candidate = mPool.get(i);
+            if (canReuse(candidate, width, height)) {
+                mPool.remove(i);
+                mPoolSize -= sizeOf(candidate);
+                mReuseCount++;
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hands a value that is no longer displayed to the reuse pool, discarding the oldest pooled
+     * values if the pool is full.
+     */
+    void offerReusable(V value) {
+        final int size = sizeOf(value);
+        final int maxPoolSize = mMaxSize / 4;
+        if (size > maxPoolSize) {
+            discard(value);
+            return;
+        }
+        while (mPoolSize + size > maxPoolSize && !mPool.isEmpty()) {
+            final V oldest = mPool.remove(0);
+            mPoolSize -= sizeOf(oldest);
+            discard(oldest);
+        }
+        mPool.add(value);
+        mPoolSize += size;
+    }
+
+    /**
+     * Moves every tile of the source to the reuse pool.
+     */
+    void removeSource(int source) {
+        Entry<V> entry = mOldest;
+        while (entry != null) {
+            final Entry<V> newer = entry.newer;
+            if (entry.source == source) {
+                remove(entry);
+            }
+            entry = newer;
+        }
+        if (mViewportSource == source) {
+            mViewportSource = -1;
+        }
+    }
+
+    void setMaxSize(int maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Empties the cache and the reuse pool, discarding every value.
+     */
+    void evictAll() {
+        trimToSize(0);
+        for (int i = 0; i < mPool.size(); i++) {
+            discard(mPool.get(i));
+        }
+        mPool.clear();
+        mPoolSize = 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int maxSize() {
+        return mMaxSize;
+    }
+
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    int getMissCount() {
+        return mMissCount;
+    }
+
+    int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    int getReuseCount() {
+        return mReuseCount;
+    }
+
+    private void trimToSize(int maxSize) {
+        while (mSize > maxSize && mOldest != null) {
+            remove(pickEvictionCandidate());
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Weighs the least recently used entries and picks the one we will miss the least. Ties go
+     * to the older entry.
+     */
+    private Entry<V> pickEvictionCandidate() {
+        Entry<V> candidate = mOldest;
+        float candidateScore = evictionScore(candidate);
+        Entry<V> entry = candidate.newer;
+        for (int i = 1; i < EVICTION_WINDOW && entry != null; i++) {
+            final float score = evictionScore(entry);
+            if (score > candidateScore) {
+                candidate = entry;
+                candidateScore = score;
+            }
+            entry = entry.newer;
+        }
+        return candidate;
+    }
+
+    /**
+     * @return how expendable the entry is: its distance from the viewport, in tiles of the
+     * viewport's level, plus a penalty for being at another level. Coarser tiles are penalised
+     * more than finer ones, as the resident fallback covers for them.
+     */
+    private float evictionScore(Entry<V> entry) {
+        if (entry.source != mViewportSource) {
+            return Float.MAX_VALUE;
+        }
+        final float span = (float) mViewportTileSize * (1 << entry.level);
+        final float left = entry.col * span, top = entry.row * span;
+        final float gapX = Math.max(0f, Math.max(mViewportLeft - (left + span), left - mViewportRight));
+        final float gapY = Math.max(0f, Math.max(mViewportTop - (top + span), top - mViewportBottom));
+        final float distance = Math.max(gapX, gapY) / ((float) mViewportTileSize * (1 << mViewportLevel));
+        final int levelDelta = entry.level - mViewportLevel;
+        return distance + (levelDelta > 0 ? 2 * levelDelta : -levelDelta);
+    }
+
+    private void remove(Entry<V> entry) {
+        mEntries.remove(entry);
+        unlink(entry);
+        mSize -= entry.size;
+        offerReusable(entry.value);
+        entry.value = null;
+    }
+
+    private void linkNewest(Entry<V> entry) {
+        entry.older = mNewest;
+        entry.newer = null;
+        if (mNewest != null) {
+            mNewest.newer = entry;
+        }
+        mNewest = entry;
+        if (mOldest == null) {
+            mOldest = entry;
+        }
+    }
+
+    private void unlink(Entry<V> entry) {
+        if (entry.older != null) {
+            entry.older.newer = entry.newer;
+        } else if (mOldest == entry) {
+            mOldest = entry.newer;
+        }
+        if (entry.newer != null) {
+            entry.newer.older = entry.older;
+        } else if (mNewest == entry) {
+            mNewest = entry.older;
+        }
+        entry.newer = null;
+        entry.older = null;
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.chrisbanes.photoview;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+
+/**
+ * Supplies the pixels of an image as a pyramid of tiles, for
+ * {@link PhotoView#setTileSource(TileSource)}. Level 0 is the image at full resolution, and every
+ * following level is half the size of the one before, rounded up. Each level is cut into square
+ * tiles of {@link #getTileSize()} pixels of that level, from the top left, so the tiles along
+ * the right and bottom edges may be smaller.
+ */
+public interface TileSource {
+
+    /**
+     * @return width of the image at full resolution
+     */
+    int getWidth();
+
+    /**
+     * @return height of the image at full resolution
+     */
+    int getHeight();
+
+    /**
+     * @return the number of levels, at least 1
+     */
+    int getLevelCount();
+
+    /**
+     * @return edge length of a tile, in pixels of its level
+     */
+    int getTileSize();
+
+    /**
+     * @return how many pixels a tile repeats of each neighbouring tile, on every side that has
+     * a neighbour. 0 for tiles that meet edge to edge
+     */
+    int getTileOverlap();
+
+    /**
+     * Reads a tile. Called on a background thread, possibly on several at once.
+     *
+     * @param reusable a mutable bitmap the tile may be decoded into, or null
+     * @return the tile, including its overlap, or null if it is not available
+     */
+    Bitmap openTile(int level, int col, int row, Bitmap reusable) throws IOException;
+
+    /**
+     * Releases what the source holds on to. Called on a background thread once no more tiles
+     * will be opened.
+     */
+    void close();
+}
@@ -0,0 +1,535 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.util.LongSparseArray;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Drawable the size of a very large image, which only ever holds a screen's worth of its
+ * pixels. A coarse, subsampled copy of the whole image stays resident and is drawn first. On top
+ * of it, tiles covering the visible part of the image are read from a {@link TileSource}, at the
+ * level of its pyramid matching the current zoom.
+ * <p>
+ * The attacher treats it like any other Drawable, so the base matrix fits the full image and all
+ * gestures work unchanged. The visible region and zoom level are read from the attacher's draw
+ * matrix on every draw, and every matrix change invalidates the view, so tiles follow the
+ * viewport as it moves.
+ * <p>
+ * Tiles live in the process-wide {@link BitmapTileCache}, so they survive zoom level changes
+ * and are shared out of one memory budget with every other tiled image. Decodes write into
+ * bitmaps recycled from the cache's reuse pool where possible. Given a cache key, tiles are also
+ * kept in the {@link DiskTileCache}, which is checked before decoding.
+ * <p>
+ * Decodes run on the shared {@link DecodeScheduler}: visible tiles first, then the ring of
+ * tiles around them. During a fling, the tiles where it will come to rest, and on the last
+ * stretch of the way there, are prefetched as soon as it starts. Queued tiles that leave that
+ * area before a worker gets to them are cancelled.
+ */
+class TiledDrawable extends Drawable {
+
+    // How many steps of the fling path, back from where it ends, are prefetched
+    private static final int MAX_CORRIDOR_STEPS = 4;
+
+    private static final AtomicInteger sNextSource = new AtomicInteger();
+
+    private final TileSource mTileSource;
+    private final PhotoViewAttacher mAttacher;
+    private final ImageView mImageView;
+    private final int mWidth, mHeight;
+    // Size of a tile in pixels of its level, and how far it reaches into its neighbours
+    private final int mTileSize, mOverlap;
+    // Sample size of the coarsest level the source has
+    private final int mMaxSampleSize;
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final DecodeScheduler mScheduler = DecodeScheduler.getInstance();
+
+    private final BitmapTileCache mCache = BitmapTileCache.getInstance();
+    // Null unless the image has a key that is stable across launches
+    private final DiskTileCache mDiskCache;
+    private final String mDiskKey;
+    // Identifies this image's tiles in the shared cache
+    private final int mSource = sNextSource.getAndIncrement();
+    // Decodes of tiles of the current sample size, keyed by tileKey()
+    private final LongSparseArray<TileJob> mPending = new LongSparseArray<>();
+    private int mTileSampleSize;
+
+    private Bitmap mBaseBitmap;
+    private int mBaseSampleSize;
+    private BaseJob mBaseJob;
+    private volatile boolean mRecycled;
+
+    // These are set so we don't keep allocating them on the heap
+    private final AffineTransform mInverse = new AffineTransform();
+    private final RectF mVisibleRect = new RectF();
+    private final RectF mDstRect = new RectF();
+    private final Rect mSrcRect = new Rect();
+    private final AffineTransform mFlingEnd = new AffineTransform();
+    private final RectF mFlingRect = new RectF();
+
+    TiledDrawable(TileSource source, PhotoViewAttacher attacher, ImageView imageView) {
+        this(source, attacher, imageView, null);
+    }
+
+    /**
+     * @param cacheKey identifies the image across app launches, so decoded tiles can be kept in
+     *                 the {@link DiskTileCache}. May be null to only cache in memory
+     */
+    TiledDrawable(TileSource source, PhotoViewAttacher attacher, ImageView imageView,
+        String cacheKey) {
+        mTileSource = source;
+        mAttacher = attacher;
+        mImageView = imageView;
+        mWidth = source.getWidth();
+        mHeight = source.getHeight();
+        mTileSize = source.getTileSize();
+        mOverlap = source.getTileOverlap();
+        mMaxSampleSize = 1 << Math.max(0, Math.min(30, source.getLevelCount() - 1));
+        if (cacheKey != null) {
+            mDiskCache = DiskTileCache.getInstance(imageView.getContext());
+            // Guards against the key being reused for different content or tiling
+            mDiskKey = cacheKey + "@" + mWidth + "x" + mHeight + "/" + mTileSize + "+" + mOverlap;
+        } else {
+            mDiskCache = null;
+            mDiskKey = null;
+        }
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mRecycled) {
+            return;
+        }
+        final int viewWidth = mImageView.getWidth() - mImageView.getPaddingLeft() - mImageView.getPaddingRight();
+        final int viewHeight = mImageView.getHeight() - mImageView.getPaddingTop() - mImageView.getPaddingBottom();
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            return;
+        }
+        if (mBaseBitmap == null) {
+            requestBase(viewWidth, viewHeight);
+        } else {
+            mDstRect.set(0, 0, mWidth, mHeight);
+            canvas.drawBitmap(mBaseBitmap, null, mDstRect, mPaint);
+        }
+
+        // The canvas is already transformed by the draw matrix, we only need it to work out
+        // which part of the image is on screen and at what resolution
+        final AffineTransform drawMatrix = mAttacher.getDrawTransform();
+        final int sampleSize = Math.min(mMaxSampleSize, getSampleSize(drawMatrix.getScale()));
+        if (mBaseSampleSize == 0 || sampleSize >= mBaseSampleSize
+            || !drawMatrix.invert(mInverse)) {
+            // The resident copy is as sharp as the screen can show
+            return;
+        }
+        if (sampleSize != mTileSampleSize) {
+            // Zoom level changed. Decodes already running still land in the cache
+            cancelPending();
+            mTileSampleSize = sampleSize;
+        }
+        mVisibleRect.set(0, 0, viewWidth, viewHeight);
+        mInverse.mapRect(mVisibleRect);
+        if (!mVisibleRect.intersect(0, 0, mWidth, mHeight)) {
+            return;
+        }
+        final int level = getLevel(sampleSize);
+        mCache.setViewport(mSource, level, mTileSize, mVisibleRect.left, mVisibleRect.top,
+            mVisibleRect.right, mVisibleRect.bottom);
+
+        final int tileSpan = mTileSize * sampleSize;
+        final int firstCol = (int) (mVisibleRect.left / tileSpan);
+        final int lastCol = (int) Math.ceil(mVisibleRect.right / tileSpan) - 1;
+        final int firstRow = (int) (mVisibleRect.top / tileSpan);
+        final int lastRow = (int) Math.ceil(mVisibleRect.bottom / tileSpan) - 1;
+
+        // Where a running fling will leave the viewport
+        boolean flinging = false;
+        int endCol = firstCol, endRow = firstRow;
+        if (mAttacher.getFlingEndTransform(mFlingEnd) && mFlingEnd.invert(mFlingEnd)) {
+            mFlingRect.set(0, 0, viewWidth, viewHeight);
+            mFlingEnd.mapRect(mFlingRect);
+            if (mFlingRect.intersect(0, 0, mWidth, mHeight)) {
+                flinging = true;
+                endCol = (int) (mFlingRect.left / tileSpan);
+                endRow = (int) (mFlingRect.top / tileSpan);
+            }
+        }
+        final int colSpan = lastCol - firstCol, rowSpan = lastRow - firstRow;
+        cancelPendingOutside(Math.min(firstCol, endCol) - 1, Math.max(lastCol, endCol + colSpan) + 1,
+            Math.min(firstRow, endRow) - 1, Math.max(lastRow, endRow + rowSpan) + 1);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                final Bitmap tile = mCache.get(mSource, level, col, row);
+                if (tile == null) {
+                    requestTile(col, row, sampleSize, DecodeScheduler.PRIORITY_VISIBLE);
+                    continue;
+                }
+                mDstRect.set(col * tileSpan, row * tileSpan,
+                    Math.min(mWidth, (col + 1) * tileSpan), Math.min(mHeight, (row + 1) * tileSpan));
+                canvas.drawBitmap(tile, getSrcRect(tile, col, row, tileSpan), mDstRect, mPaint);
+            }
+        }
+        requestNeighbours(firstCol, lastCol, firstRow, lastRow, sampleSize);
+        if (flinging) {
+            prefetchFling(firstCol, firstRow, endCol, endRow, colSpan, rowSpan, sampleSize);
+        }
+    }
+
+    /**
+     * Releases every bitmap and stops decoding. The tile source is closed as well, as this
+     * drawable owns it.
+     */
+    void recycle() {
+        if (mRecycled) {
+            return;
+        }
+        mRecycled = true;
+        cancelPending();
+        if (mBaseJob != null) {
+            mBaseJob.cancel();
+            mBaseJob = null;
+        }
+        mCache.removeSource(mSource);
+        if (mBaseBitmap != null) {
+            mBaseBitmap.recycle();
+            mBaseBitmap = null;
+        }
+        // May wait for a tile still being read, so keep it off the UI thread
+        mScheduler.submit(new DecodeScheduler.Job<Void>() {
+            @Override
+            Void decode() {
+                mTileSource.close();
+                return null;
+            }
+
+            @Override
+            void onDecoded(Void result) {
+            }
+        }, DecodeScheduler.PRIORITY_VISIBLE);
+    }
+
+    /**
+     * @return the largest power of two sample size that still has at least one image pixel per
+     * screen pixel at the given scale
+     */
+    private static int getSampleSize(float scale) {
+        int sampleSize = 1;
+        if (scale <= 0f) {
+            return sampleSize;
+        }
+        while (sampleSize * 2 <= 1f / scale) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return the cache level of a power of two sample size, i.e. its log2
+     */
+    private static int getLevel(int sampleSize) {
+        return Integer.numberOfTrailingZeros(sampleSize);
+    }
+
+    /**
+     * @return the part of a tile to draw, leaving out what it repeats of its neighbours, or null
+     * for all of it
+     */
+    private Rect getSrcRect(Bitmap tile, int col, int row, int tileSpan) {
+        if (mOverlap == 0) {
+            return null;
+        }
+        mSrcRect.set(col > 0 ? mOverlap : 0, row > 0 ? mOverlap : 0,
+            tile.getWidth() - ((col + 1) * tileSpan < mWidth ? mOverlap : 0),
+            tile.getHeight() - ((row + 1) * tileSpan < mHeight ? mOverlap : 0));
+        return mSrcRect;
+    }
+
+    private static long tileKey(int col, int row) {
+        return ((long) col << 32) | (row & 0xffffffffL);
+    }
+
+    private void requestBase(int viewWidth, int viewHeight) {
+        if (mBaseJob != null) {
+            return;
+        }
+        // Sharp enough for the image fitted into the view
+        final float fitScale = Math.min((float) viewWidth / mWidth, (float) viewHeight / mHeight);
+        mBaseJob = new BaseJob(Math.min(mMaxSampleSize, getSampleSize(fitScale)));
+        mScheduler.submit(mBaseJob, DecodeScheduler.PRIORITY_VISIBLE);
+    }
+
+    private void requestTile(int col, int row, int sampleSize, int priority) {
+        final long key = tileKey(col, row);
+        final TileJob pending = mPending.get(key);
+        if (pending != null) {
+            // A neighbour may have scrolled into view while queued
+            if (priority < pending.getPriority()) {
+                mScheduler.setPriority(pending, priority);
+            }
+            return;
+        }
+        final TileJob job = new TileJob(col, row, sampleSize);
+        mPending.put(key, job);
+        mScheduler.submit(job, priority);
+    }
+
+    /**
+     * Queues the ring of tiles around the visible ones, so they are ready when a pan reaches them.
+     */
+    private void requestNeighbours(int firstCol, int lastCol, int firstRow, int lastRow, int sampleSize) {
+        // The visible tiles are already queued at a higher priority, which requests never lower
+        requestRange(firstCol - 1, lastCol + 1, firstRow - 1, lastRow + 1, sampleSize,
+            DecodeScheduler.PRIORITY_NEIGHBOUR);
+    }
+
+    /**
+     * Queues the tiles of the viewport a fling comes to rest at, then the ones on the way there,
+     * walking back from the end. The scroller decelerates, so the viewport lingers longest at
+     * the end of the path.
+     */
+    private void prefetchFling(int firstCol, int firstRow, int endCol, int endRow,
+        int colSpan, int rowSpan, int sampleSize) {
+        final int deltaCol = endCol - firstCol, deltaRow = endRow - firstRow;
+        // One tile per step, so consecutive steps leave no gaps
+        final int steps = Math.max(Math.abs(deltaCol), Math.abs(deltaRow));
+        for (int step = steps; step >= Math.max(1, steps - MAX_CORRIDOR_STEPS); step--) {
+            final int col = firstCol + Math.round((float) deltaCol * step / steps);
+            final int row = firstRow + Math.round((float) deltaRow * step / steps);
+            requestRange(col, col + colSpan, row, row + rowSpan, sampleSize,
+                DecodeScheduler.PRIORITY_PREFETCH);
+        }
+    }
+
+    private void requestRange(int firstCol, int lastCol, int firstRow, int lastRow,
+        int sampleSize, int priority) {
+        final int tileSpan = mTileSize * sampleSize;
+        final int level = getLevel(sampleSize);
+        final int maxCol = ceilDiv(mWidth, tileSpan) - 1;
+        final int maxRow = ceilDiv(mHeight, tileSpan) - 1;
+        for (int row = Math.max(0, firstRow); row <= Math.min(maxRow, lastRow); row++) {
+            for (int col = Math.max(0, firstCol); col <= Math.min(maxCol, lastCol); col++) {
+                if (!mCache.contains(mSource, level, col, row)) {
+                    requestTile(col, row, sampleSize, priority);
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the decodes of tiles that are outside the given range of columns and rows.
+     */
+    private void cancelPendingOutside(int firstCol, int lastCol, int firstRow, int lastRow) {
+        for (int i = mPending.size() - 1; i >= 0; i--) {
+            final TileJob job = mPending.valueAt(i);
+            if (job.mCol < firstCol || job.mCol > lastCol || job.mRow < firstRow || job.mRow > lastRow) {
+                job.cancel();
+                mPending.removeAt(i);
+            }
+        }
+    }
+
+    private void cancelPending() {
+        for (int i = 0; i < mPending.size(); i++) {
+            mPending.valueAt(i).cancel();
+        }
+        mPending.clear();
+    }
+
+    private void onTileDecoded(TileJob job, Bitmap bitmap) {
+        if (job.mReusable != null && job.mReusable != bitmap) {
+            // The decode did not use it after all
+            mCache.offerReusable(job.mReusable);
+        }
+        if (bitmap == null) {
+            // A failed tile stays pending, so it is not retried on every frame
+            return;
+        }
+        if (mRecycled) {
+            mCache.offerReusable(bitmap);
+            return;
+        }
+        // Cached even if the job was cancelled meanwhile, the tile may well come back into view
+        mCache.put(mSource, getLevel(job.mSampleSize), job.mCol, job.mRow, bitmap);
+        final long key = tileKey(job.mCol, job.mRow);
+        if (mPending.get(key) == job) {
+            mPending.remove(key);
+            invalidateSelf();
+        }
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Reads a tile from the disk cache, or from the source and adds it there. Runs on a worker
+     * thread.
+     */
+    private Bitmap load(int level, int col, int row, Bitmap reusable) {
+        if (mRecycled) {
+            return null;
+        }
+        if (mDiskCache == null) {
+            return open(level, col, row, reusable);
+        }
+        Bitmap bitmap = mDiskCache.get(mDiskKey, level, col, row, reusable);
+        if (bitmap == null) {
+            bitmap = open(level, col, row, reusable);
+            if (bitmap != null) {
+                mDiskCache.put(mDiskKey, level, col, row, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    private Bitmap open(int level, int col, int row, Bitmap reusable) {
+        try {
+            return mTileSource.openTile(level, col, row, reusable);
+        } catch (IOException e) {
+            // Treated like any failed decode
+            return null;
+        }
+    }
+
+    private class BaseJob extends DecodeScheduler.Job<Bitmap> {
+
+        private final int mSampleSize;
+
+        BaseJob(int sampleSize) {
+            mSampleSize = sampleSize;
+        }
+
+        @Override
+        Bitmap decode() {
+            // The whole image at one sample size, i.e. a level of the pyramid
+            final int level = getLevel(mSampleSize);
+            final int tileSpan = mTileSize * mSampleSize;
+            final int cols = ceilDiv(mWidth, tileSpan), rows = ceilDiv(mHeight, tileSpan);
+            if (cols == 1 && rows == 1) {
+                return load(level, 0, 0, null);
+            }
+            final Bitmap base = Bitmap.createBitmap(ceilDiv(mWidth, mSampleSize),
+                ceilDiv(mHeight, mSampleSize), Bitmap.Config.ARGB_8888);
+            final Canvas canvas = new Canvas(base);
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    final Bitmap tile = load(level, col, row, null);
+                    if (tile == null) {
+                        base.recycle();
+                        return null;
+                    }
+                    // Overlapping pixels are the same in both tiles, so drawing them twice is fine
+                    canvas.drawBitmap(tile, col * mTileSize - (col > 0 ? mOverlap : 0),
+                        row * mTileSize - (row > 0 ? mOverlap : 0), null);
+                    tile.recycle();
+                }
+            }
+            return base;
+        }
+
+        @Override
+        void onDecoded(Bitmap bitmap) {
+            if (bitmap == null) {
+                // Try again on the next draw
+                mBaseJob = null;
+                return;
+            }
+            mBaseBitmap = bitmap;
+            mBaseSampleSize = mSampleSize;
+            invalidateSelf();
+        }
+
+        @Override
+        void onCancelled(Bitmap bitmap) {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+    }
+
+    private class TileJob extends DecodeScheduler.Job<Bitmap> {
+
+        final int mCol, mRow, mSampleSize;
+        final Bitmap mReusable;
+
+        TileJob(int col, int row, int sampleSize) {
+            mCol = col;
+            mRow = row;
+            mSampleSize = sampleSize;
+            // Size of the tile in pixels of its level, overlap included
+            final int levelWidth = ceilDiv(mWidth, sampleSize), levelHeight = ceilDiv(mHeight, sampleSize);
+            final int left = Math.max(0, col * mTileSize - mOverlap);
+            final int top = Math.max(0, row * mTileSize - mOverlap);
+            final int right = Math.min(levelWidth, (col + 1) * mTileSize + mOverlap);
+            final int bottom = Math.min(levelHeight, (row + 1) * mTileSize + mOverlap);
+            // The pool is only touched on the UI thread, so take the bitmap to decode into up front
+            mReusable = mCache.obtainReusable(right - left, bottom - top);
+        }
+
+        @Override
+        Bitmap decode() {
+            return load(getLevel(mSampleSize), mCol, mRow, mReusable);
+        }
+
+        @Override
+        void onDecoded(Bitmap bitmap) {
+            onTileDecoded(this, bitmap);
+        }
+
+        @Override
+        void onCancelled(Bitmap bitmap) {
+            onTileDecoded(this, bitmap);
+        }
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ Copyright 2011, 2012 Chris Banes.
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+package com.github.chrisbanes.photoview;
+
+import java.util.ArrayList;
+
+/**
+ * Ties the zoom, rotation and position of several PhotoViews together, e.g. to compare before
+ * and after photos side by side. See {@link PhotoViewAttacher#setTransformGroup(TransformGroup)}.
+ * <p>
+ * The members share a single supp matrix. A gesture or animation on any of them changes it once,
+ * its bounds are checked once against the view the change happened on, and every member is
+ * redrawn within the same call, so they never lag a frame behind each other. Each member's
+ * {@link OnMatrixChangedListener} is still notified, but nothing is fed back into the group.
+ * <p>
+ * The shared transform applies on top of each view's own fit of its image, so members should
+ * show images of the same aspect ratio in views of the same size.
+ */
+public class TransformGroup {
+
+    final AffineTransform mSuppMatrix = new AffineTransform();
+    private final ArrayList<PhotoViewAttacher> mMembers = new ArrayList<>();
+    // Set while redrawing the members, so their updates are not dispatched again
+    private boolean mDispatching;
+
+    /**
+     * @return how many attachers are in the group
+     */
+    public int size() {
+        return mMembers.size();
+    }
+
+    void add(PhotoViewAttacher attacher) {
+        if (!mMembers.contains(attacher)) {
+            mMembers.add(attacher);
+        }
+    }
+
+    void remove(PhotoViewAttacher attacher) {
+        mMembers.remove(attacher);
+    }
+
+    /**
+     * Redraws every member but the one whose change to the shared matrix was just displayed.
+     */
+    void dispatchTransformChanged(PhotoViewAttacher source) {
+        if (mDispatching) {
+            return;
+        }
+        mDispatching = true;
+        try {
+            for (int i = 0; i < mMembers.size(); i++) {
+                final PhotoViewAttacher member = mMembers.get(i);
+                if (member != source) {
+                    member.onGroupTransformChanged();
+                }
+            }
+        } finally {
+            mDispatching = false;
+        }
+    }
+
+    /**
+     * Stops the flings and animations of every member, so a new gesture is not fought over.
+     */
+    void cancelAnimations() {
+        for (int i = 0; i < mMembers.size(); i++) {
+            mMembers.get(i).cancelAnimations();
+        }
+    }
+}
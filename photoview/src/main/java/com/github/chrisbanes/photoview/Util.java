@@ -1,6 +1,5 @@
 package com.github.chrisbanes.photoview;
 
-import android.view.MotionEvent;
 import android.widget.ImageView;
 
 class Util {
@@ -16,6 +15,30 @@ class Util {
         }
     }
 
+    /**
+     * @return the number of levels of a tile pyramid, halving the image until it fits in a
+     * single tile
+     */
+    static int getLevelCount(int width, int height, int tileSize) {
+        int levels = 1;
+        int size = Math.max(width, height);
+        while (size > tileSize) {
+            size = (size + 1) / 2;
+            levels++;
+        }
+        return levels;
+    }
+
+    /**
+     * @return true if the sizes have the same aspect ratio, allowing for the sides of one of
+     * them to have been rounded to whole pixels when it was scaled
+     */
+    static boolean isSameAspectRatio(int width0, int height0, int width1, int height1) {
+        // Cross multiplied, rounding a side by a pixel moves a product by at most the other side
+        final long delta = Math.abs((long) width0 * height1 - (long) width1 * height0);
+        return delta <= Math.max(width0 + height0, width1 + height1);
+    }
+
     static boolean hasDrawable(ImageView imageView) {
         return imageView.getDrawable() != null;
     }
@@ -30,8 +53,4 @@ class Util {
         }
         return true;
     }
-
-    static int getPointerIndex(int action) {
-        return (action & MotionEvent.ACTION_POINTER_INDEX_MASK) >> MotionEvent.ACTION_POINTER_INDEX_SHIFT;
-    }
 }
@@ -0,0 +1,309 @@
+package com.github.chrisbanes.photoview;
+
+import android.graphics.Matrix;
+import android.graphics.Matrix.ScaleToFit;
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link AffineTransform} against {@link Matrix} on random inputs. Every test uses a
+ * fixed seed so a failure can be replayed.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AffineTransformTest {
+
+    private static final int ITERATIONS = 200;
+    // Relative to the largest value compared, floats lose precision as translations grow
+    private static final float TOLERANCE = 1e-4f;
+    // Mapped coordinates stay within a few thousand pixels
+    private static final float PIXEL_TOLERANCE = 0.01f;
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void postScaleAndRotateAboutPivotsMatchMatrix() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final AffineTransform transform = new AffineTransform();
+            final Matrix matrix = new Matrix();
+            for (int op = 0; op < 4; op++) {
+                final float px = randomCoordinate(), py = randomCoordinate();
+                switch (random.nextInt(3)) {
+                    case 0:
+                        final float sx = randomScale(), sy = randomScale();
+                        transform.postScale(sx, sy, px, py);
+                        matrix.postScale(sx, sy, px, py);
+                        break;
+                    case 1:
+                        final float degrees = randomDegrees();
+                        transform.postRotate(degrees, px, py);
+                        matrix.postRotate(degrees, px, py);
+                        break;
+                    default:
+                        transform.postTranslate(px, py);
+                        matrix.postTranslate(px, py);
+                        break;
+                }
+            }
+            assertSameValues(matrix, transform);
+        }
+    }
+
+    @Test
+    public void rightAnglesStayExact() {
+        final AffineTransform transform = new AffineTransform();
+        transform.setRotate(90f);
+        final Matrix matrix = new Matrix();
+        transform.get(matrix);
+        final float[] values = new float[9];
+        matrix.getValues(values);
+        assertEquals(0f, values[Matrix.MSCALE_X], 0f);
+        assertEquals(-1f, values[Matrix.MSKEW_X], 0f);
+        assertEquals(1f, values[Matrix.MSKEW_Y], 0f);
+        assertEquals(0f, values[Matrix.MSCALE_Y], 0f);
+    }
+
+    @Test
+    public void setScaleAboutPivotMatchesMatrix() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final float sx = randomScale(), sy = randomScale();
+            final float px = randomCoordinate(), py = randomCoordinate();
+            final AffineTransform transform = randomTransform();
+            transform.setScale(sx, sy, px, py);
+            final Matrix matrix = new Matrix();
+            matrix.setScale(sx, sy, px, py);
+            assertSameValues(matrix, transform);
+        }
+    }
+
+    @Test
+    public void setConcatAppliesSecondArgumentFirst() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final AffineTransform a = randomTransform();
+            final AffineTransform b = randomTransform();
+            final Matrix ma = toMatrix(a), mb = toMatrix(b);
+
+            final AffineTransform result = new AffineTransform();
+            result.setConcat(a, b);
+            final Matrix expected = new Matrix();
+            expected.setConcat(ma, mb);
+            assertSameValues(expected, result);
+
+            // Same as applying b, then a
+            final AffineTransform posted = new AffineTransform();
+            posted.set(b);
+            posted.postConcat(a);
+            assertSameValues(expected, posted);
+        }
+    }
+
+    @Test
+    public void setConcatAllowsAliasing() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final AffineTransform a = randomTransform();
+            final AffineTransform b = randomTransform();
+            final Matrix expected = new Matrix();
+            expected.setConcat(toMatrix(a), toMatrix(b));
+
+            final AffineTransform first = new AffineTransform();
+            first.set(a);
+            first.setConcat(first, b);
+            assertSameValues(expected, first);
+
+            final AffineTransform second = new AffineTransform();
+            second.set(b);
+            second.setConcat(a, second);
+            assertSameValues(expected, second);
+        }
+    }
+
+    @Test
+    public void setRectToRectMatchesMatrixForEveryScaleToFit() {
+        for (ScaleToFit stf : ScaleToFit.values()) {
+            for (int i = 0; i < ITERATIONS; i++) {
+                final RectF src = randomRect();
+                final RectF dst = randomRect();
+                final AffineTransform transform = randomTransform();
+                transform.setRectToRect(src.left, src.top, src.right, src.bottom,
+                    dst.left, dst.top, dst.right, dst.bottom, stf);
+                final Matrix matrix = new Matrix();
+                matrix.setRectToRect(src, dst, stf);
+                assertSameValues(matrix, transform);
+            }
+        }
+    }
+
+    @Test
+    public void setRectToRectWithEmptySourceResets() {
+        final AffineTransform transform = randomTransform();
+        transform.setRectToRect(10, 10, 10, 50, 0, 0, 100, 100, ScaleToFit.CENTER);
+        assertSameValues(new Matrix(), transform);
+    }
+
+    @Test
+    public void invertMatchesMatrix() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final AffineTransform transform = randomTransform();
+            final Matrix expected = new Matrix();
+            assertTrue(toMatrix(transform).invert(expected));
+
+            final AffineTransform inverse = new AffineTransform();
+            assertTrue(transform.invert(inverse));
+            assertSameValues(expected, inverse);
+
+            // In place
+            assertTrue(transform.invert(transform));
+            assertSameValues(expected, transform);
+        }
+    }
+
+    @Test
+    public void invertOfSingularTransformLeavesDestinationUntouched() {
+        final AffineTransform singular = new AffineTransform();
+        singular.setScale(0f, 2f, 0f, 0f);
+        final AffineTransform dst = randomTransform();
+        final Matrix before = toMatrix(dst);
+        final int version = dst.getVersion();
+
+        assertFalse(singular.invert(dst));
+        assertSameValues(before, dst);
+        assertEquals(version, dst.getVersion());
+    }
+
+    @Test
+    public void mapRectMatchesMatrix() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final AffineTransform transform = randomTransform();
+            final RectF expected = randomRect();
+            final RectF actual = new RectF(expected);
+            toMatrix(transform).mapRect(expected);
+            transform.mapRect(actual);
+            assertEquals(expected.left, actual.left, PIXEL_TOLERANCE);
+            assertEquals(expected.top, actual.top, PIXEL_TOLERANCE);
+            assertEquals(expected.right, actual.right, PIXEL_TOLERANCE);
+            assertEquals(expected.bottom, actual.bottom, PIXEL_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void mapPointsMatchesMatrix() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final AffineTransform transform = randomTransform();
+            final float[] expected = new float[8];
+            for (int p = 0; p < expected.length; p++) {
+                expected[p] = randomCoordinate();
+            }
+            final float[] actual = expected.clone();
+            toMatrix(transform).mapPoints(expected);
+            transform.mapPoints(actual);
+            for (int p = 0; p < expected.length; p++) {
+                assertEquals(expected[p], actual[p], PIXEL_TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void decomposeRecoversScaleAndRotation() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final float scale = randomScale();
+            // getRotation reports (-180, 180]
+            final float degrees = random.nextFloat() * 358f - 179f;
+            final AffineTransform transform = new AffineTransform();
+            transform.setScale(scale, scale, 0f, 0f);
+            transform.postRotate(degrees, randomCoordinate(), randomCoordinate());
+            transform.postTranslate(randomCoordinate(), randomCoordinate());
+            assertClose(scale, transform.getScale());
+            assertEquals(degrees, transform.getRotation(), 0.01f);
+        }
+    }
+
+    @Test
+    public void decomposeFollowsMutations() {
+        final AffineTransform transform = new AffineTransform();
+        assertClose(1f, transform.getScale());
+        assertClose(0f, transform.getRotation());
+
+        final int version = transform.getVersion();
+        transform.postScale(3f, 3f, 50f, 50f);
+        assertNotEquals(version, transform.getVersion());
+        assertClose(3f, transform.getScale());
+
+        transform.postRotate(180f);
+        assertClose(3f, transform.getScale());
+        assertClose(180f, transform.getRotation());
+
+        transform.reset();
+        assertClose(1f, transform.getScale());
+        assertClose(0f, transform.getRotation());
+    }
+
+    @Test
+    public void roundTripsThroughMatrix() {
+        for (int i = 0; i < ITERATIONS; i++) {
+            final AffineTransform transform = randomTransform();
+            final Matrix matrix = toMatrix(transform);
+            final AffineTransform copy = new AffineTransform();
+            copy.set(matrix);
+            assertSameValues(matrix, copy);
+        }
+    }
+
+    private AffineTransform randomTransform() {
+        final AffineTransform transform = new AffineTransform();
+        transform.postScale(randomScale(), randomScale(), randomCoordinate(), randomCoordinate());
+        transform.postRotate(randomDegrees(), randomCoordinate(), randomCoordinate());
+        transform.postTranslate(randomCoordinate(), randomCoordinate());
+        return transform;
+    }
+
+    private RectF randomRect() {
+        final float left = randomCoordinate(), top = randomCoordinate();
+        return new RectF(left, top, left + 1f + random.nextFloat() * 2000f,
+            top + 1f + random.nextFloat() * 2000f);
+    }
+
+    private float randomCoordinate() {
+        return random.nextFloat() * 2000f - 1000f;
+    }
+
+    private float randomScale() {
+        return 0.25f + random.nextFloat() * 3.75f;
+    }
+
+    private float randomDegrees() {
+        return random.nextFloat() * 720f - 360f;
+    }
+
+    private static Matrix toMatrix(AffineTransform transform) {
+        final Matrix matrix = new Matrix();
+        transform.get(matrix);
+        return matrix;
+    }
+
+    private static void assertSameValues(Matrix expected, AffineTransform actual) {
+        final float[] expectedValues = new float[9];
+        final float[] actualValues = new float[9];
+        expected.getValues(expectedValues);
+        toMatrix(actual).getValues(actualValues);
+        float magnitude = 1f;
+        for (float value : expectedValues) {
+            magnitude = Math.max(magnitude, Math.abs(value));
+        }
+        for (int i = 0; i < 9; i++) {
+            assertEquals(expectedValues[i], actualValues[i], TOLERANCE * magnitude);
+        }
+    }
+
+    private static void assertClose(float expected, float actual) {
+        assertEquals(expected, actual, TOLERANCE * Math.max(1f, Math.abs(expected)));
+    }
+}
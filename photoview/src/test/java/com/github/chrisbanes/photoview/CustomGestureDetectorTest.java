@@ -0,0 +1,152 @@
+package com.github.chrisbanes.photoview;
+
+import android.os.SystemClock;
+import android.view.MotionEvent;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Multi-pointer sequences through {@link CustomGestureDetector}. Each pointer is given as an
+ * {@code id, x, y} triple, in index order.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CustomGestureDetectorTest {
+
+    private static final float DELTA = 0.001f;
+
+    private final RecordingListener listener = new RecordingListener();
+    private CustomGestureDetector detector;
+    private long downTime;
+
+    @Before
+    public void setUp() {
+        detector = new CustomGestureDetector(ApplicationProvider.getApplicationContext(), listener);
+        downTime = SystemClock.uptimeMillis();
+    }
+
+    @Test
+    public void pointerDownKeepsFollowingFirstPointer() {
+        send(MotionEvent.ACTION_DOWN, 0, 0, 100, 100);
+        send(MotionEvent.ACTION_MOVE, 0, 0, 200, 100);
+        assertLastDrag(100, 0);
+
+        send(MotionEvent.ACTION_POINTER_DOWN, 1, 0, 200, 100, 1, 600, 600);
+        send(MotionEvent.ACTION_MOVE, 0, 0, 250, 120, 1, 600, 600);
+        assertLastDrag(50, 20);
+        assertEquals(2, listener.dragCount);
+    }
+
+    @Test
+    public void pointerUpOfActivePointerHandsOverWithoutJump() {
+        send(MotionEvent.ACTION_DOWN, 0, 0, 100, 100);
+        send(MotionEvent.ACTION_MOVE, 0, 0, 200, 100);
+        send(MotionEvent.ACTION_POINTER_DOWN, 1, 0, 200, 100, 1, 600, 600);
+        send(MotionEvent.ACTION_POINTER_UP, 0, 0, 200, 100, 1, 600, 600);
+
+        // Only the second pointer is left, now at index 0
+        send(MotionEvent.ACTION_MOVE, 0, 1, 610, 605);
+        assertLastDrag(10, 5);
+    }
+
+    @Test
+    public void pointerUpOfOtherPointerKeepsActivePointer() {
+        send(MotionEvent.ACTION_DOWN, 0, 0, 100, 100);
+        send(MotionEvent.ACTION_MOVE, 0, 0, 200, 100);
+        send(MotionEvent.ACTION_POINTER_DOWN, 1, 0, 200, 100, 1, 600, 600);
+        send(MotionEvent.ACTION_POINTER_UP, 1, 0, 200, 100, 1, 600, 600);
+
+        send(MotionEvent.ACTION_MOVE, 0, 0, 230, 90);
+        assertLastDrag(30, -10);
+    }
+
+    @Test
+    public void staleIndexIsResolvedFromPointerId() {
+        send(MotionEvent.ACTION_DOWN, 0, 0, 100, 100);
+        send(MotionEvent.ACTION_MOVE, 0, 0, 200, 100);
+        send(MotionEvent.ACTION_POINTER_DOWN, 1, 0, 200, 100, 1, 600, 600);
+        send(MotionEvent.ACTION_POINTER_UP, 0, 0, 200, 100, 1, 600, 600);
+        send(MotionEvent.ACTION_MOVE, 0, 1, 600, 600);
+
+        // A new pointer reuses id 0 and takes index 0, pushing the active pointer to index 1
+        send(MotionEvent.ACTION_POINTER_DOWN, 0, 0, 50, 50, 1, 600, 600);
+        send(MotionEvent.ACTION_MOVE, 0, 0, 50, 50, 1, 620, 640);
+        assertLastDrag(20, 40);
+    }
+
+    @Test
+    public void moveWithoutDownStartsFromCurrentPosition() {
+        send(MotionEvent.ACTION_MOVE, 0, 3, 100, 100);
+        assertEquals(0, listener.dragCount);
+
+        send(MotionEvent.ACTION_MOVE, 0, 3, 150, 100);
+        assertLastDrag(50, 0);
+    }
+
+    @Test
+    public void pointerDownWithoutDownAdoptsNewPointer() {
+        send(MotionEvent.ACTION_POINTER_DOWN, 1, 0, 100, 100, 1, 300, 300);
+        send(MotionEvent.ACTION_MOVE, 0, 0, 100, 100, 1, 380, 300);
+        assertLastDrag(80, 0);
+    }
+
+    private void send(int action, int actionIndex, float... pointers) {
+        final int count = pointers.length / 3;
+        final MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[count];
+        final MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[count];
+        for (int i = 0; i < count; i++) {
+            properties[i] = new MotionEvent.PointerProperties();
+            properties[i].id = (int) pointers[i * 3];
+            properties[i].toolType = MotionEvent.TOOL_TYPE_FINGER;
+            coords[i] = new MotionEvent.PointerCoords();
+            coords[i].x = pointers[i * 3 + 1];
+            coords[i].y = pointers[i * 3 + 2];
+            coords[i].pressure = 1f;
+            coords[i].size = 1f;
+        }
+        final int maskedAction = action | (actionIndex << MotionEvent.ACTION_POINTER_INDEX_SHIFT);
+        final MotionEvent event = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(),
+            maskedAction, count, properties, coords, 0, 0, 1f, 1f, 0, 0, 0, 0);
+        try {
+            detector.onTouchEvent(event);
+        } finally {
+            event.recycle();
+        }
+    }
+
+    private void assertLastDrag(float dx, float dy) {
+        assertEquals(dx, listener.lastDx, DELTA);
+        assertEquals(dy, listener.lastDy, DELTA);
+    }
+
+    private static class RecordingListener implements OnGestureListener {
+
+        int dragCount;
+        float lastDx, lastDy;
+
+        @Override
+        public void onDrag(float dx, float dy) {
+            dragCount++;
+            lastDx = dx;
+            lastDy = dy;
+        }
+
+        @Override
+        public void onFling(float startX, float startY, float velocityX, float velocityY) {
+        }
+
+        @Override
+        public void onScale(float scaleFactor, float focusX, float focusY) {
+        }
+
+        @Override
+        public void onScale(float scaleFactor, float focusX, float focusY, float dx, float dy) {
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.chrisbanes.photoview;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Transforms reached through the attacher's public API, with animations run to the end on the
+ * main looper.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PhotoViewAttacherTest {
+
+    private static final float TOLERANCE = 1e-3f;
+    private static final float[] ANGLES = {90f, 45f, -30f, 180f, 270f};
+
+    private PhotoView photoView;
+
+    @Before
+    public void setUp() {
+        final Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        photoView = new PhotoView(activity);
+        photoView.setImageBitmap(Bitmap.createBitmap(400, 300, Bitmap.Config.ARGB_8888));
+        activity.setContentView(photoView);
+        idle();
+    }
+
+    @Test
+    public void setRotationToEndsOnSameTransformAnimatedOrNot() {
+        for (float degrees : ANGLES) {
+            zoomAndPan();
+            photoView.setRotationTo(degrees, false);
+            final float[] immediate = suppValues();
+
+            zoomAndPan();
+            photoView.setRotationTo(degrees, true);
+            idle();
+            assertSameValues(immediate, suppValues());
+        }
+    }
+
+    @Test
+    public void setRotationByEndsOnSameTransformAnimatedOrNot() {
+        for (float degrees : ANGLES) {
+            zoomAndPan();
+            photoView.setRotationBy(degrees, false);
+            final float[] immediate = suppValues();
+
+            zoomAndPan();
+            photoView.setRotationBy(degrees, true);
+            idle();
+            assertSameValues(immediate, suppValues());
+        }
+    }
+
+    @Test
+    public void animateToEndsOnTarget() {
+        final Matrix target = new Matrix();
+        target.setScale(2f, 2f, photoView.getWidth() / 2f, photoView.getHeight() / 2f);
+        target.postRotate(30f, photoView.getWidth() / 2f, photoView.getHeight() / 2f);
+        photoView.getAttacher().animateTo(target);
+        idle();
+
+        final float[] expected = new float[9];
+        target.getValues(expected);
+        assertSameValues(expected, suppValues());
+    }
+
+    @Test
+    public void animateToRejectsSkew() {
+        final Matrix target = new Matrix();
+        target.setSkew(0.5f, 0f);
+        assertRejected(target);
+    }
+
+    @Test
+    public void animateToRejectsUnevenScale() {
+        final Matrix target = new Matrix();
+        target.setScale(2f, 3f);
+        assertRejected(target);
+    }
+
+    @Test
+    public void animateToRejectsMirroring() {
+        final Matrix target = new Matrix();
+        target.setScale(-2f, 2f);
+        assertRejected(target);
+    }
+
+    private void assertRejected(Matrix target) {
+        try {
+            photoView.getAttacher().animateTo(target);
+            fail("Expected " + target + " to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Puts the view back to a zoomed in, panned state, so rotations have something to keep or
+     * throw away.
+     */
+    private void zoomAndPan() {
+        final Matrix supp = new Matrix();
+        supp.setScale(2f, 2f, photoView.getWidth() / 2f, photoView.getHeight() / 2f);
+        supp.postTranslate(50f, -30f);
+        photoView.setSuppMatrix(supp);
+    }
+
+    private float[] suppValues() {
+        final Matrix supp = new Matrix();
+        photoView.getSuppMatrix(supp);
+        final float[] values = new float[9];
+        supp.getValues(values);
+        return values;
+    }
+
+    private static void assertSameValues(float[] expected, float[] actual) {
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], TOLERANCE * Math.max(1f, Math.abs(expected[i])));
+        }
+    }
+
+    private static void idle() {
+        shadowOf(Looper.getMainLooper()).idleFor(1, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,227 @@
+package com.github.chrisbanes.photoview;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plain JVM tests of the {@link TileCache} core, with tiles that only know their size.
+ */
+public class TileCacheTest {
+
+    private static final int TILE_SIZE = 256;
+    private static final int SOURCE = 1, OTHER_SOURCE = 2;
+
+    private static class Tile {
+        final int width, height;
+
+        Tile(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private static class FakeTileCache extends TileCache<Tile> {
+
+        final ArrayList<Tile> discarded = new ArrayList<>();
+
+        FakeTileCache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected int sizeOf(Tile value) {
+            return value.width * value.height;
+        }
+
+        @Override
+        protected boolean canReuse(Tile candidate, int width, int height) {
+            return candidate.width >= width && candidate.height >= height;
+        }
+
+        @Override
+        protected void discard(Tile value) {
+            discarded.add(value);
+        }
+    }
+
+    // Every tile is 10 units, so a cache of 40 holds four and pools one
+    private static Tile tile() {
+        return new Tile(10, 1);
+    }
+
+    @Test
+    public void getCountsHitsAndMisses() {
+        final FakeTileCache cache = new FakeTileCache(40);
+        final Tile tile = tile();
+        cache.put(SOURCE, 0, 0, 0, tile);
+
+        assertSame(tile, cache.get(SOURCE, 0, 0, 0));
+        assertNull(cache.get(SOURCE, 0, 1, 0));
+        assertNull(cache.get(OTHER_SOURCE, 0, 0, 0));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWithoutViewport() {
+        final FakeTileCache cache = new FakeTileCache(40);
+        for (int col = 0; col < 4; col++) {
+            cache.put(SOURCE, 0, col, 0, tile());
+        }
+        // Touch the oldest, so the second oldest goes first
+        cache.get(SOURCE, 0, 0, 0);
+        cache.put(SOURCE, 0, 4, 0, tile());
+
+        assertTrue(cache.contains(SOURCE, 0, 0, 0));
+        assertFalse(cache.contains(SOURCE, 0, 1, 0));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(40, cache.size());
+    }
+
+    @Test
+    public void evictsTilesFarFromViewportFirst() {
+        final FakeTileCache cache = new FakeTileCache(40);
+        cache.setViewport(SOURCE, 0, TILE_SIZE, 0, 0, 2 * TILE_SIZE, TILE_SIZE);
+        cache.put(SOURCE, 0, 0, 0, tile());
+        cache.put(SOURCE, 0, 10, 0, tile());
+        cache.put(SOURCE, 0, 1, 0, tile());
+        cache.put(SOURCE, 0, 0, 1, tile());
+        cache.put(SOURCE, 0, 1, 1, tile());
+
+        // The oldest tile is on screen and survives the far one
+        assertTrue(cache.contains(SOURCE, 0, 0, 0));
+        assertFalse(cache.contains(SOURCE, 0, 10, 0));
+    }
+
+    @Test
+    public void evictsCoarserLevelsBeforeFinerOnes() {
+        final FakeTileCache cache = new FakeTileCache(30);
+        cache.setViewport(SOURCE, 1, TILE_SIZE, 0, 0, 2 * TILE_SIZE, 2 * TILE_SIZE);
+        cache.put(SOURCE, 1, 0, 0, tile());
+        cache.put(SOURCE, 0, 0, 0, tile());
+        cache.put(SOURCE, 2, 0, 0, tile());
+
+        cache.put(SOURCE, 1, 0, 1, tile());
+        assertFalse(cache.contains(SOURCE, 2, 0, 0));
+
+        cache.put(SOURCE, 1, 1, 0, tile());
+        assertFalse(cache.contains(SOURCE, 0, 0, 0));
+        assertTrue(cache.contains(SOURCE, 1, 0, 0));
+    }
+
+    @Test
+    public void evictsOtherSourcesFirst() {
+        final FakeTileCache cache = new FakeTileCache(30);
+        cache.setViewport(SOURCE, 0, TILE_SIZE, 0, 0, TILE_SIZE, TILE_SIZE);
+        cache.put(SOURCE, 0, 0, 0, tile());
+        cache.put(SOURCE, 0, 5, 5, tile());
+        cache.put(OTHER_SOURCE, 0, 0, 0, tile());
+        cache.put(SOURCE, 0, 0, 1, tile());
+
+        assertFalse(cache.contains(OTHER_SOURCE, 0, 0, 0));
+        assertTrue(cache.contains(SOURCE, 0, 5, 5));
+    }
+
+    @Test
+    public void evictedTilesAreReused() {
+        final FakeTileCache cache = new FakeTileCache(40);
+        final Tile oldest = tile();
+        cache.put(SOURCE, 0, 0, 0, oldest);
+        for (int col = 1; col < 5; col++) {
+            cache.put(SOURCE, 0, col, 0, tile());
+        }
+
+        assertNull(cache.obtainReusable(20, 1));
+        assertSame(oldest, cache.obtainReusable(10, 1));
+        assertNull(cache.obtainReusable(10, 1));
+        assertEquals(1, cache.getReuseCount());
+        assertTrue(cache.discarded.isEmpty());
+    }
+
+    @Test
+    public void replacingTilePoolsPreviousValue() {
+        final FakeTileCache cache = new FakeTileCache(40);
+        final Tile first = tile();
+        final Tile second = tile();
+        cache.put(SOURCE, 0, 0, 0, first);
+        cache.put(SOURCE, 0, 0, 0, second);
+
+        assertSame(second, cache.get(SOURCE, 0, 0, 0));
+        assertEquals(10, cache.size());
+        assertSame(first, cache.obtainReusable(10, 1));
+    }
+
+    @Test
+    public void poolDiscardsOldestWhenFull() {
+        final FakeTileCache cache = new FakeTileCache(80);
+        final Tile first = tile();
+        final Tile second = tile();
+        final Tile third = tile();
+        cache.offerReusable(first);
+        cache.offerReusable(second);
+        cache.offerReusable(third);
+
+        assertEquals(1, cache.discarded.size());
+        assertSame(first, cache.discarded.get(0));
+    }
+
+    @Test
+    public void poolRejectsValuesLargerThanItsBudget() {
+        final FakeTileCache cache = new FakeTileCache(40);
+        final Tile large = new Tile(11, 1);
+        cache.offerReusable(large);
+
+        assertSame(large, cache.discarded.get(0));
+        assertNull(cache.obtainReusable(1, 1));
+    }
+
+    @Test
+    public void removeSourceKeepsOtherSources() {
+        final FakeTileCache cache = new FakeTileCache(100);
+        cache.put(SOURCE, 0, 0, 0, tile());
+        cache.put(OTHER_SOURCE, 0, 0, 0, tile());
+        cache.put(SOURCE, 1, 0, 0, tile());
+        cache.removeSource(SOURCE);
+
+        assertFalse(cache.contains(SOURCE, 0, 0, 0));
+        assertFalse(cache.contains(SOURCE, 1, 0, 0));
+        assertTrue(cache.contains(OTHER_SOURCE, 0, 0, 0));
+        assertEquals(10, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void setMaxSizeTrims() {
+        final FakeTileCache cache = new FakeTileCache(40);
+        for (int col = 0; col < 4; col++) {
+            cache.put(SOURCE, 0, col, 0, tile());
+        }
+        cache.setMaxSize(20);
+
+        assertEquals(20, cache.size());
+        assertEquals(20, cache.maxSize());
+        assertFalse(cache.contains(SOURCE, 0, 0, 0));
+        assertTrue(cache.contains(SOURCE, 0, 3, 0));
+    }
+
+    @Test
+    public void evictAllDiscardsEverything() {
+        final FakeTileCache cache = new FakeTileCache(40);
+        for (int col = 0; col < 5; col++) {
+            cache.put(SOURCE, 0, col, 0, tile());
+        }
+        cache.evictAll();
+
+        assertEquals(0, cache.size());
+        assertEquals(5, cache.discarded.size());
+        assertNull(cache.obtainReusable(1, 1));
+    }
+}